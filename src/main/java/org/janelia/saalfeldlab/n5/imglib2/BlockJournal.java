@@ -0,0 +1,188 @@
+/**
+ * Copyright (c) 2017-2018, Stephan Saalfeld, Philipp Hanslovsky, Igor Pisarev
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5.imglib2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import gnu.trove.set.hash.TLongHashSet;
+import net.imglib2.util.IntervalIndexer;
+
+/**
+ * An append-only journal of completed {@link org.janelia.saalfeldlab.n5.DataBlock}
+ * grid positions.  Used by
+ * {@link N5Utils#saveResumable(net.imglib2.RandomAccessibleInterval, org.janelia.saalfeldlab.n5.N5Writer, String, int[], org.janelia.saalfeldlab.n5.Compression, Path, java.util.concurrent.ExecutorService)}
+ * to skip all blocks that were written by a previous, interrupted run.
+ *
+ * The file starts with a header that stores the grid dimensions, followed
+ * by one 8 byte record per completed block that stores the flat index of its
+ * grid position.  An incomplete trailing record, e.g. from a crash during an
+ * append, is discarded when the journal is opened.
+ */
+public class BlockJournal implements SaveProgressListener, Closeable {
+
+	private static final int MAGIC = 0x4e35424a; // "N5BJ"
+
+	private final Path path;
+
+	private final long[] gridDimensions;
+
+	private final TLongHashSet completed;
+
+	private final FileChannel channel;
+
+	private final ByteBuffer record = ByteBuffer.allocate(Long.BYTES);
+
+	private BlockJournal(
+			final Path path,
+			final long[] gridDimensions,
+			final TLongHashSet completed,
+			final FileChannel channel) {
+
+		this.path = path;
+		this.gridDimensions = gridDimensions;
+		this.completed = completed;
+		this.channel = channel;
+	}
+
+	/**
+	 * Open an existing journal or create a new one.
+	 *
+	 * @param path
+	 * @param gridDimensions
+	 * @return
+	 * @throws IOException if an existing journal was created for a different grid
+	 */
+	public static BlockJournal open(final Path path, final long[] gridDimensions) throws IOException {
+
+		final int headerSize = 2 * Integer.BYTES + gridDimensions.length * Long.BYTES;
+		final TLongHashSet completed = new TLongHashSet();
+
+		if (Files.exists(path) && Files.size(path) > 0) {
+			final ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(path));
+			if (bytes.capacity() < headerSize || bytes.getInt() != MAGIC)
+				throw new IOException(path + " is not a block journal.");
+			final long[] journalGridDimensions = new long[bytes.getInt()];
+			for (int d = 0; d < journalGridDimensions.length; ++d)
+				journalGridDimensions[d] = bytes.getLong();
+			if (!Arrays.equals(gridDimensions, journalGridDimensions))
+				throw new IOException(
+						"Block journal " + path + " was created for grid " + Arrays.toString(journalGridDimensions) +
+						", not for " + Arrays.toString(gridDimensions) + ".");
+			while (bytes.remaining() >= Long.BYTES)
+				completed.add(bytes.getLong());
+		}
+
+		final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		if (channel.size() < headerSize) {
+			final ByteBuffer header = ByteBuffer.allocate(headerSize);
+			header.putInt(MAGIC);
+			header.putInt(gridDimensions.length);
+			for (final long g : gridDimensions)
+				header.putLong(g);
+			header.flip();
+			channel.truncate(0);
+			channel.position(0);
+			while (header.hasRemaining())
+				channel.write(header);
+		}
+		/* drop an incomplete trailing record */
+		channel.truncate(headerSize + (long)completed.size() * Long.BYTES);
+		channel.position(channel.size());
+
+		return new BlockJournal(path, gridDimensions.clone(), completed, channel);
+	}
+
+	/**
+	 * @param gridPosition
+	 * @return whether the block at gridPosition was recorded as completed
+	 */
+	public synchronized boolean contains(final long[] gridPosition) {
+
+		return completed.contains(IntervalIndexer.positionToIndex(gridPosition, gridDimensions));
+	}
+
+	/**
+	 * @return number of completed blocks
+	 */
+	public synchronized int size() {
+
+		return completed.size();
+	}
+
+	/**
+	 * Record a block as completed.
+	 *
+	 * @param gridPosition
+	 * @throws IOException
+	 */
+	public synchronized void append(final long[] gridPosition) throws IOException {
+
+		final long index = IntervalIndexer.positionToIndex(gridPosition, gridDimensions);
+		if (completed.add(index)) {
+			record.clear();
+			record.putLong(index);
+			record.flip();
+			while (record.hasRemaining())
+				channel.write(record);
+		}
+	}
+
+	@Override
+	public void blockSaved(final long[] gridPosition, final long numBytes, final long encodeNanos, final long writeNanos) {
+
+		try {
+			append(gridPosition);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+
+		channel.close();
+	}
+
+	/**
+	 * Close and remove the journal.
+	 *
+	 * @throws IOException
+	 */
+	public void delete() throws IOException {
+
+		close();
+		Files.deleteIfExists(path);
+	}
+}
@@ -0,0 +1,360 @@
+/**
+ * Copyright (c) 2017-2018, Stephan Saalfeld, Philipp Hanslovsky, Igor Pisarev
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5.imglib2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.janelia.saalfeldlab.n5.ByteArrayDataBlock;
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.LongArrayDataBlock;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.N5Writer;
+
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.util.IntervalIndexer;
+
+/**
+ * Index of the {@link DataBlock DataBlocks} of a label multiset dataset that
+ * contain a label.
+ *
+ * The index is stored as a UINT64 dataset nested inside the label multiset
+ * dataset, such that it does not show up as a sibling, e.g. as an additional
+ * scale level of a mipmap group.  The pixels of the index correspond to the
+ * blocks of the label multiset dataset.  Each index block has size 1 and
+ * contains the sorted ids of all labels in the corresponding label block as a
+ * variable length {@link LongArrayDataBlock}, so that concurrent block saves
+ * never write into the same index block.  The path of the index dataset is
+ * stored in the {@link #LABEL_BLOCK_INDEX_KEY} attribute of the label
+ * multiset dataset.
+ *
+ * Indexing is opt-in.  The index is either built while a label multiset
+ * dataset is saved, see
+ * {@link N5LabelMultisets#saveLabelMultiset(net.imglib2.RandomAccessibleInterval, N5Writer, String, int[], org.janelia.saalfeldlab.n5.Compression, SaveProgressListener, LabelCounts, boolean)},
+ * or created for the existing blocks of a dataset with
+ * {@link #create(N5Writer, String)}.  After that, all block saves into the
+ * dataset keep the index up to date.
+ *
+ * Since every label block has its own index block, {@link #read(N5Reader, String)}
+ * reads one index block per label block, i.e. loading the index costs as many
+ * reads as the dataset has blocks.  Load it once and query the
+ * {@link LabelBlockIndex} for many labels.
+ */
+public class LabelBlockIndex {
+
+	public static final String LABEL_BLOCK_INDEX_KEY = "labelBlockIndex";
+
+	private final CellGrid grid;
+
+	private final TLongObjectHashMap<TLongArrayList> blocksByLabel;
+
+	private LabelBlockIndex(final CellGrid grid, final TLongObjectHashMap<TLongArrayList> blocksByLabel) {
+
+		this.grid = grid;
+		this.blocksByLabel = blocksByLabel;
+	}
+
+	/**
+	 * Updates the index blocks of a label multiset dataset.
+	 */
+	static class Writer {
+
+		static final Writer NONE = new Writer(null, null, null);
+
+		private final N5Writer n5;
+
+		private final String indexDataset;
+
+		private final DatasetAttributes indexAttributes;
+
+		private Writer(final N5Writer n5, final String indexDataset, final DatasetAttributes indexAttributes) {
+
+			this.n5 = n5;
+			this.indexDataset = indexDataset;
+			this.indexAttributes = indexAttributes;
+		}
+
+		/**
+		 * Update the index block for a serialized label multiset block.
+		 *
+		 * @param dataBlock
+		 * @throws IOException
+		 */
+		void write(final ByteArrayDataBlock dataBlock) throws IOException {
+
+			if (n5 == null)
+				return;
+
+			final int[] size = new int[indexAttributes.getDimensions().length];
+			Arrays.fill(size, 1);
+			n5.writeBlock(
+					indexDataset,
+					indexAttributes,
+					new LongArrayDataBlock(size, dataBlock.getGridPosition(), LabelMultisetBlockSerializer.labels(dataBlock.getData())));
+		}
+	}
+
+	/**
+	 * Default path of the index dataset of a label multiset dataset.
+	 *
+	 * @param dataset
+	 * @return
+	 */
+	public static String defaultIndexDataset(final String dataset) {
+
+		return dataset + "/" + LABEL_BLOCK_INDEX_KEY;
+	}
+
+	/**
+	 * Path of the index dataset of a label multiset dataset or {@code null}
+	 * if the dataset is not indexed.
+	 *
+	 * @param n5
+	 * @param dataset
+	 * @return
+	 * @throws IOException
+	 */
+	public static String getIndexDataset(final N5Reader n5, final String dataset) throws IOException {
+
+		return n5.getAttribute(dataset, LABEL_BLOCK_INDEX_KEY, String.class);
+	}
+
+	private static DatasetAttributes indexAttributes(final DatasetAttributes attributes) {
+
+		final long[] gridDimensions = new CellGrid(attributes.getDimensions(), attributes.getBlockSize()).getGridDimensions();
+		final int[] blockSize = new int[gridDimensions.length];
+		Arrays.fill(blockSize, 1);
+		return new DatasetAttributes(gridDimensions, blockSize, DataType.UINT64, attributes.getCompression());
+	}
+
+	/**
+	 * Create the index of an existing label multiset dataset from its
+	 * existing blocks and link it in the {@link #LABEL_BLOCK_INDEX_KEY}
+	 * attribute.  An existing index is replaced.  All subsequent block saves
+	 * into the dataset update the index.  This reads every block of the
+	 * dataset, to index a dataset while it is saved, use
+	 * {@link N5LabelMultisets#saveLabelMultiset(net.imglib2.RandomAccessibleInterval, N5Writer, String, int[], org.janelia.saalfeldlab.n5.Compression, SaveProgressListener, LabelCounts, boolean)}
+	 * instead.
+	 *
+	 * @param n5
+	 * @param dataset
+	 * @throws IOException
+	 */
+	public static void create(final N5Writer n5, final String dataset) throws IOException {
+
+		final DatasetAttributes attributes = n5.getDatasetAttributes(dataset);
+		if (attributes == null)
+			throw new IOException("Dataset " + dataset + " does not exist.");
+		if (!N5LabelMultisets.isLabelMultisetType(n5, dataset))
+			throw new IOException(dataset + " is not a label multiset dataset.");
+
+		final Writer writer = create(n5, dataset, attributes);
+		for (final long[] gridPosition : N5Utils.gridPositions(new FinalInterval(attributes.getDimensions()), attributes.getBlockSize())) {
+			final DataBlock<?> block = n5.readBlock(dataset, attributes, gridPosition);
+			if (block != null)
+				writer.write((ByteArrayDataBlock)block);
+		}
+	}
+
+	/**
+	 * Create an empty index for a label multiset dataset with given
+	 * attributes, link it in the {@link #LABEL_BLOCK_INDEX_KEY} attribute and
+	 * open a {@link Writer} for it.  An existing index is replaced.
+	 *
+	 * @param n5
+	 * @param dataset
+	 * @param attributes attributes of the label multiset dataset
+	 * @return
+	 * @throws IOException
+	 */
+	static Writer create(final N5Writer n5, final String dataset, final DatasetAttributes attributes) throws IOException {
+
+		final String indexDataset = defaultIndexDataset(dataset);
+		final DatasetAttributes indexAttributes = indexAttributes(attributes);
+		if (n5.datasetExists(indexDataset))
+			n5.remove(indexDataset);
+		n5.createDataset(indexDataset, indexAttributes);
+		n5.setAttribute(dataset, LABEL_BLOCK_INDEX_KEY, indexDataset);
+		return new Writer(n5, indexDataset, indexAttributes);
+	}
+
+	/**
+	 * Reset the index of a label multiset dataset that is being re-created
+	 * with new attributes and open a {@link Writer} for it, or return
+	 * {@link Writer#NONE} if the dataset is not indexed.
+	 *
+	 * @param n5
+	 * @param dataset
+	 * @param attributes new attributes of the label multiset dataset
+	 * @return
+	 * @throws IOException
+	 */
+	static Writer reset(final N5Writer n5, final String dataset, final DatasetAttributes attributes) throws IOException {
+
+		final String indexDataset = getIndexDataset(n5, dataset);
+		if (indexDataset == null)
+			return Writer.NONE;
+		final DatasetAttributes indexAttributes = indexAttributes(attributes);
+		if (n5.datasetExists(indexDataset))
+			n5.remove(indexDataset);
+		n5.createDataset(indexDataset, indexAttributes);
+		return new Writer(n5, indexDataset, indexAttributes);
+	}
+
+	/**
+	 * Open a {@link Writer} for the index of an existing label multiset
+	 * dataset, or {@link Writer#NONE} if the dataset is not indexed.
+	 *
+	 * @param n5
+	 * @param dataset
+	 * @return
+	 * @throws IOException
+	 */
+	static Writer openWriter(final N5Writer n5, final String dataset) throws IOException {
+
+		final String indexDataset = getIndexDataset(n5, dataset);
+		if (indexDataset == null)
+			return Writer.NONE;
+		return new Writer(n5, indexDataset, n5.getDatasetAttributes(indexDataset));
+	}
+
+	/**
+	 * Load the index of a label multiset dataset.  This reads one index block
+	 * per block of the dataset.
+	 *
+	 * @param n5
+	 * @param dataset
+	 * @return
+	 * @throws IOException
+	 */
+	public static LabelBlockIndex read(final N5Reader n5, final String dataset) throws IOException {
+
+		final String indexDataset = getIndexDataset(n5, dataset);
+		if (indexDataset == null)
+			throw new IOException(dataset + " has no label block index.");
+
+		final DatasetAttributes attributes = n5.getDatasetAttributes(dataset);
+		final DatasetAttributes indexAttributes = n5.getDatasetAttributes(indexDataset);
+		final long[] gridDimensions = indexAttributes.getDimensions();
+		final TLongObjectHashMap<TLongArrayList> blocksByLabel = new TLongObjectHashMap<>();
+
+		final int n = gridDimensions.length;
+		final long[] gridPosition = new long[n];
+		for (int d = 0; d < n;) {
+			final DataBlock<?> block = n5.readBlock(indexDataset, indexAttributes, gridPosition);
+			if (block != null) {
+				final long index = IntervalIndexer.positionToIndex(gridPosition, gridDimensions);
+				for (final long label : (long[])block.getData()) {
+					TLongArrayList blocks = blocksByLabel.get(label);
+					if (blocks == null) {
+						blocks = new TLongArrayList();
+						blocksByLabel.put(label, blocks);
+					}
+					blocks.add(index);
+				}
+			}
+
+			for (d = 0; d < n; ++d) {
+				if (gridPosition[d] < gridDimensions[d] - 1) {
+					++gridPosition[d];
+					break;
+				} else
+					gridPosition[d] = 0;
+			}
+		}
+
+		return new LabelBlockIndex(new CellGrid(attributes.getDimensions(), attributes.getBlockSize()), blocksByLabel);
+	}
+
+	/**
+	 * @param label
+	 * @return whether any block contains the label
+	 */
+	public boolean contains(final long label) {
+
+		return blocksByLabel.containsKey(label);
+	}
+
+	/**
+	 * Grid positions of all blocks that contain a label.
+	 *
+	 * @param label
+	 * @return
+	 */
+	public List<long[]> getGridPositions(final long label) {
+
+		final TLongArrayList blocks = blocksByLabel.get(label);
+		final ArrayList<long[]> gridPositions = new ArrayList<>();
+		if (blocks != null) {
+			final long[] gridDimensions = grid.getGridDimensions();
+			for (int i = 0; i < blocks.size(); ++i) {
+				final long[] gridPosition = new long[gridDimensions.length];
+				IntervalIndexer.indexToPosition(blocks.get(i), gridDimensions, gridPosition);
+				gridPositions.add(gridPosition);
+			}
+		}
+		return gridPositions;
+	}
+
+	/**
+	 * Bounding box of all blocks that contain a label in pixel coordinates,
+	 * or {@code null} if no block contains the label.
+	 *
+	 * @param label
+	 * @return
+	 */
+	public Interval getBoundingBox(final long label) {
+
+		final List<long[]> gridPositions = getGridPositions(label);
+		if (gridPositions.isEmpty())
+			return null;
+
+		final int n = grid.numDimensions();
+		final long[] min = new long[n];
+		final long[] max = new long[n];
+		Arrays.fill(min, Long.MAX_VALUE);
+		Arrays.fill(max, Long.MIN_VALUE);
+		final long[] cellMin = new long[n];
+		final int[] cellDimensions = new int[n];
+		for (final long[] gridPosition : gridPositions) {
+			grid.getCellDimensions(gridPosition, cellMin, cellDimensions);
+			for (int d = 0; d < n; ++d) {
+				min[d] = Math.min(min[d], cellMin[d]);
+				max[d] = Math.max(max[d], cellMin[d] + cellDimensions[d] - 1);
+			}
+		}
+		return new FinalInterval(min, max);
+	}
+}
@@ -0,0 +1,289 @@
+/**
+ * Copyright (c) 2017-2018, Stephan Saalfeld, Philipp Hanslovsky, Igor Pisarev
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5.imglib2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.N5Writer;
+
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TLongLongHashMap;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedLongType;
+
+/**
+ * Accumulates the number of voxels per label from serialized
+ * {@link net.imglib2.type.label.LabelMultisetType} blocks while they are
+ * saved.  Every thread counts into its own primitive map, the maps are merged
+ * only when the counts are requested, so accumulation needs no
+ * synchronization.
+ *
+ * Counts can be stored in the container as a UINT64 dataset of (label,
+ * count) pairs nested inside the label multiset dataset, such that it does
+ * not show up as a sibling, e.g. as an additional scale level of a mipmap
+ * group.  Its path is linked in the {@value #LABEL_COUNTS_KEY} attribute of
+ * the label multiset dataset.  Sparse label updates adjust the stored
+ * counts, all other writes into the label multiset dataset remove them.
+ */
+public class LabelCounts {
+
+	public static final String LABEL_COUNTS_KEY = "labelCounts";
+
+	private static final int BLOCK_SIZE = 1 << 16;
+
+	private final List<TLongLongHashMap> threadCounts = new ArrayList<>();
+
+	private final ThreadLocal<TLongLongHashMap> counts = ThreadLocal.withInitial(() -> {
+		final TLongLongHashMap map = new TLongLongHashMap();
+		synchronized (threadCounts) {
+			threadCounts.add(map);
+		}
+		return map;
+	});
+
+	/**
+	 * Add the counts of a serialized block.  Every distinct entry list is
+	 * visited once and weighted by the number of voxels that refer to it.
+	 *
+	 * @param data
+	 */
+	public void accumulate(final byte[] data) {
+
+		final ByteBuffer bb = ByteBuffer.wrap(data);
+		final int numElements = bb.getInt();
+		bb.position(Integer.BYTES + numElements * Long.BYTES);
+
+		final TIntIntHashMap numVoxelsPerList = new TIntIntHashMap();
+		for (int i = 0; i < numElements; ++i)
+			numVoxelsPerList.adjustOrPutValue(bb.getInt(), 1, 1);
+
+		final int listsOffset = bb.position();
+		bb.order(ByteOrder.LITTLE_ENDIAN);
+		final TLongLongHashMap map = counts.get();
+		numVoxelsPerList.forEachEntry((listOffset, numVoxels) -> {
+			bb.position(listsOffset + listOffset);
+			final int size = bb.getInt();
+			for (int j = 0; j < size; ++j) {
+				final long id = bb.getLong();
+				final long count = (long)bb.getInt() * numVoxels;
+				if (count > 0)
+					map.adjustOrPutValue(id, count, count);
+			}
+			return true;
+		});
+	}
+
+	/**
+	 * Merge the counts of all threads.  Must not be called concurrently with
+	 * {@link #accumulate(byte[])}.
+	 *
+	 * @return
+	 */
+	public TLongLongHashMap getCounts() {
+
+		final TLongLongHashMap merged = new TLongLongHashMap();
+		synchronized (threadCounts) {
+			for (final TLongLongHashMap map : threadCounts)
+				map.forEachEntry((id, count) -> {
+					merged.adjustOrPutValue(id, count, count);
+					return true;
+				});
+		}
+		return merged;
+	}
+
+	/**
+	 * Discard the counts of all threads.  Must not be called concurrently
+	 * with {@link #accumulate(byte[])}.
+	 */
+	public void clear() {
+
+		synchronized (threadCounts) {
+			for (final TLongLongHashMap map : threadCounts)
+				map.clear();
+		}
+	}
+
+	/**
+	 * Default path of the counts dataset of a label multiset dataset.
+	 *
+	 * @param dataset
+	 * @return
+	 */
+	public static String defaultCountsDataset(final String dataset) {
+
+		return dataset + "/" + LABEL_COUNTS_KEY;
+	}
+
+	/**
+	 * Save the merged counts with a label multiset dataset and link them in
+	 * its {@value #LABEL_COUNTS_KEY} attribute.  The saved counts are
+	 * {@link #clear() cleared}, such that this instance can be reused for
+	 * the next dataset.  If no voxels were counted, a single (0, 0) pair is
+	 * saved that {@link #read(N5Reader, String)} reads as no counts.
+	 *
+	 * @param n5
+	 * @param dataset
+	 * @param compression
+	 * @throws IOException
+	 */
+	public void save(final N5Writer n5, final String dataset, final Compression compression) throws IOException {
+
+		write(getCounts(), n5, dataset, compression);
+		clear();
+	}
+
+	private static void write(
+			final TLongLongHashMap counts,
+			final N5Writer n5,
+			final String dataset,
+			final Compression compression) throws IOException {
+
+		final int numPairs = Math.max(1, counts.size());
+		final long[] pairs = new long[2 * numPairs];
+		final int[] i = {0};
+		counts.forEachEntry((id, count) -> {
+			pairs[i[0]++] = id;
+			pairs[i[0]++] = count;
+			return true;
+		});
+
+		final String countsDataset = defaultCountsDataset(dataset);
+		final ArrayImg<UnsignedLongType, ?> img = ArrayImgs.unsignedLongs(pairs, 2, numPairs);
+		if (n5.datasetExists(countsDataset))
+			n5.remove(countsDataset);
+		N5Utils.save(img, n5, countsDataset, new int[]{2, BLOCK_SIZE}, compression);
+		n5.setAttribute(dataset, LABEL_COUNTS_KEY, countsDataset);
+	}
+
+	/**
+	 * Path of the counts dataset of a label multiset dataset or {@code null}
+	 * if no counts are stored.
+	 *
+	 * @param n5
+	 * @param dataset
+	 * @return
+	 * @throws IOException
+	 */
+	public static String getCountsDataset(final N5Reader n5, final String dataset) throws IOException {
+
+		return n5.getAttribute(dataset, LABEL_COUNTS_KEY, String.class);
+	}
+
+	/**
+	 * Adjust the stored counts of a label multiset dataset after some of its
+	 * blocks were replaced, by the counts of the previous blocks and the
+	 * counts of the new blocks.  Does nothing if no counts are stored.
+	 *
+	 * @param n5
+	 * @param dataset
+	 * @param removed counts of the previous blocks
+	 * @param added counts of the new blocks
+	 * @throws IOException
+	 */
+	static void update(
+			final N5Writer n5,
+			final String dataset,
+			final LabelCounts removed,
+			final LabelCounts added) throws IOException {
+
+		final String countsDataset = getCountsDataset(n5, dataset);
+		if (countsDataset == null)
+			return;
+
+		final TLongLongHashMap counts = read(n5, dataset);
+		removed.getCounts().forEachEntry((id, count) -> {
+			counts.adjustOrPutValue(id, -count, -count);
+			return true;
+		});
+		added.getCounts().forEachEntry((id, count) -> {
+			counts.adjustOrPutValue(id, count, count);
+			return true;
+		});
+		counts.retainEntries((id, count) -> count > 0);
+		write(counts, n5, dataset, n5.getDatasetAttributes(countsDataset).getCompression());
+	}
+
+	/**
+	 * Remove the stored counts of a label multiset dataset whose blocks are
+	 * replaced without counting them.  The link is removed first, so that
+	 * concurrent writers do not try to remove the counts again.
+	 *
+	 * @param n5
+	 * @param dataset
+	 * @throws IOException
+	 */
+	static void invalidate(final N5Writer n5, final String dataset) throws IOException {
+
+		final String countsDataset = getCountsDataset(n5, dataset);
+		if (countsDataset == null)
+			return;
+
+		n5.setAttribute(dataset, LABEL_COUNTS_KEY, null);
+		if (n5.datasetExists(countsDataset))
+			n5.remove(countsDataset);
+	}
+
+	/**
+	 * Read the counts of a label multiset dataset that were saved with
+	 * {@link #save(N5Writer, String, Compression)}.
+	 *
+	 * @param n5
+	 * @param dataset
+	 * @return
+	 * @throws IOException
+	 */
+	public static TLongLongHashMap read(final N5Reader n5, final String dataset) throws IOException {
+
+		final String countsDataset = getCountsDataset(n5, dataset);
+		if (countsDataset == null)
+			throw new IOException(dataset + " has no label counts.");
+
+		final RandomAccessibleInterval<UnsignedLongType> img = N5Utils.open(n5, countsDataset);
+		final RandomAccess<UnsignedLongType> access = img.randomAccess();
+		final TLongLongHashMap counts = new TLongLongHashMap();
+		for (long j = 0; j < img.dimension(1); ++j) {
+			access.setPosition(j, 1);
+			access.setPosition(0, 0);
+			final long id = access.get().get();
+			access.setPosition(1, 0);
+			final long count = access.get().get();
+			if (count > 0)
+				counts.put(id, count);
+		}
+		return counts;
+	}
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2017-2018, Stephan Saalfeld, Philipp Hanslovsky, Igor Pisarev
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5.imglib2;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.LongUnaryOperator;
+
+import gnu.trove.map.hash.TLongLongHashMap;
+import net.imglib2.cache.Cache;
+
+/**
+ * A swappable lookup table of label ids, e.g. a fragment to segment
+ * assignment, that is applied while the cells of a label dataset are
+ * decoded.  Ids that are not in the table map to themselves.
+ *
+ * Swapping the table invalidates the caches of all images that were opened
+ * with this lookup, such that their cells are decoded again with the new
+ * table, while the data in the container stays untouched.  Cells that are
+ * loaded concurrently with a swap may still use the previous table.
+ */
+public class LabelLookup implements LongUnaryOperator {
+
+	private volatile TLongLongHashMap table;
+
+	private final List<WeakReference<Cache<?, ?>>> caches = new ArrayList<>();
+
+	public LabelLookup(final TLongLongHashMap table) {
+
+		this.table = table;
+	}
+
+	public LabelLookup() {
+
+		this(new TLongLongHashMap());
+	}
+
+	@Override
+	public long applyAsLong(final long id) {
+
+		final TLongLongHashMap table = this.table;
+		return table.containsKey(id) ? table.get(id) : id;
+	}
+
+	public TLongLongHashMap getTable() {
+
+		return table;
+	}
+
+	/**
+	 * Replace the table and invalidate all cached cells that were decoded
+	 * with the previous table.  The table must not be modified after it was
+	 * set.
+	 *
+	 * @param table
+	 */
+	public void setTable(final TLongLongHashMap table) {
+
+		this.table = table;
+		synchronized (caches) {
+			for (final Iterator<WeakReference<Cache<?, ?>>> i = caches.iterator(); i.hasNext();) {
+				final Cache<?, ?> cache = i.next().get();
+				if (cache == null)
+					i.remove();
+				else
+					cache.invalidateAll();
+			}
+		}
+	}
+
+	/**
+	 * Register a cache whose values depend on this lookup.  The cache is
+	 * referenced weakly.
+	 *
+	 * @param cache
+	 */
+	void register(final Cache<?, ?> cache) {
+
+		synchronized (caches) {
+			caches.add(new WeakReference<>(cache));
+		}
+	}
+}
@@ -0,0 +1,441 @@
+/**
+ * Copyright (c) 2017-2018, Stephan Saalfeld, Philipp Hanslovsky, Igor Pisarev
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5.imglib2;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.function.LongUnaryOperator;
+
+import gnu.trove.impl.Constants;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TIntLongHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.set.hash.TLongHashSet;
+import net.imglib2.type.label.Label;
+import net.imglib2.type.label.LabelMultisetType;
+import net.imglib2.type.label.LabelMultisetType.Entry;
+
+/**
+ * Serializes blocks of {@link LabelMultisetType} into the format of
+ * {@link net.imglib2.type.label.LabelUtils#serializeLabelMultisetTypes(Iterable, int)}
+ * without intermediate per-block data structures.  The argmax, the list
+ * offsets and the entry lists are written into buffers that are owned by the
+ * calling thread and grow as needed, such that the only allocation per block
+ * is the resulting byte array.
+ *
+ * The layout is
+ * <ul>
+ * <li>number of pixels (int), followed by the argmax label of every pixel
+ * (long)</li>
+ * <li>the offset of the entry list of every pixel (int)</li>
+ * <li>the entry lists, each being the number of entries (int) followed by
+ * label id (long) and count (int) of every entry, in native order of
+ * {@link net.imglib2.type.label.LongMappedAccessData}</li>
+ * </ul>
+ * Identical entry lists are stored only once.
+ */
+public class LabelMultisetBlockSerializer {
+
+	private static final int ENTRY_SIZE_IN_BYTES = Long.BYTES + Integer.BYTES;
+
+	private static final int NO_OFFSET = -1;
+
+	private static final ThreadLocal<LabelMultisetBlockSerializer> serializers = ThreadLocal.withInitial(LabelMultisetBlockSerializer::new);
+
+	private long[] argMax = new long[0];
+
+	private int[] offsets = new int[0];
+
+	private ByteBuffer lists = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+
+	private final TIntObjectHashMap<TIntArrayList> offsetsByHash = new TIntObjectHashMap<>();
+
+	private final TLongIntHashMap labelOffsets = new TLongIntHashMap(Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, Label.INVALID, NO_OFFSET);
+
+	private final TIntIntHashMap remappedOffsets = new TIntIntHashMap();
+
+	private final TIntLongHashMap remappedArgMax = new TIntLongHashMap();
+
+	private final TLongIntHashMap mergedCounts = new TLongIntHashMap();
+
+	private boolean isEmpty;
+
+	private LabelMultisetBlockSerializer() {}
+
+	/**
+	 * Serialize a block of {@link LabelMultisetType} using the buffers of the
+	 * calling thread.
+	 *
+	 * @param source flat iteration order
+	 * @param numElements
+	 * @return
+	 */
+	public static byte[] serialize(final Iterable<LabelMultisetType> source, final int numElements) {
+
+		return serializers.get().serializeBlock(source, numElements, Label.INVALID);
+	}
+
+	/**
+	 * Serialize a block of {@link LabelMultisetType} using the buffers of the
+	 * calling thread, or return {@code null} if all labels are equal to
+	 * {@code defaultLabelId} (regardless of their counts).  Emptiness is
+	 * tracked while serializing, so every pixel is visited only once.
+	 *
+	 * @param source flat iteration order
+	 * @param numElements
+	 * @param defaultLabelId
+	 * @return
+	 */
+	public static byte[] serializeNonEmpty(final Iterable<LabelMultisetType> source, final int numElements, final long defaultLabelId) {
+
+		final LabelMultisetBlockSerializer serializer = serializers.get();
+		final byte[] bytes = serializer.serializeBlock(source, numElements, defaultLabelId);
+		return serializer.isEmpty ? null : bytes;
+	}
+
+	/**
+	 * Serialize a block of plain labels, each pixel becoming a
+	 * {@link LabelMultisetType} with a single entry of count 1, using the
+	 * buffers of the calling thread.
+	 *
+	 * @param labels flat iteration order
+	 * @return
+	 */
+	public static byte[] serialize(final long[] labels) {
+
+		return serializers.get().serializeLabels(labels);
+	}
+
+	/**
+	 * Map all label ids of a serialized block through a lookup, e.g. a
+	 * fragment to segment assignment, using the buffers of the calling
+	 * thread.  Entries that map to the same id are merged by adding their
+	 * counts and the argmax is recomputed.  Every distinct entry list is
+	 * remapped only once.
+	 *
+	 * @param data
+	 * @param lookup
+	 * @return
+	 */
+	public static byte[] remap(final byte[] data, final LongUnaryOperator lookup) {
+
+		return serializers.get().remapBlock(data, lookup);
+	}
+
+	/**
+	 * Replace the label multisets of some pixels of a serialized block, using
+	 * the buffers of the calling thread.  Each changed pixel gets a single
+	 * entry with the new label and the total count of its previous multiset,
+	 * all other entry lists are copied unchanged.
+	 *
+	 * @param data
+	 * @param labelsByIndex new labels by flat pixel index within the block
+	 * @return
+	 */
+	public static byte[] patch(final byte[] data, final TIntLongHashMap labelsByIndex) {
+
+		return serializers.get().patchBlock(data, labelsByIndex);
+	}
+
+	/**
+	 * Extract the sorted ids of all labels in a serialized block.  Only the
+	 * deduplicated entry lists are visited.
+	 *
+	 * @param data
+	 * @return
+	 */
+	public static long[] labels(final byte[] data) {
+
+		final ByteBuffer bb = ByteBuffer.wrap(data);
+		final int numElements = bb.getInt();
+		bb.position(Integer.BYTES + numElements * (Long.BYTES + Integer.BYTES));
+		bb.order(ByteOrder.LITTLE_ENDIAN);
+
+		final TLongHashSet labels = new TLongHashSet();
+		while (bb.hasRemaining()) {
+			final int size = bb.getInt();
+			for (int i = 0; i < size; ++i) {
+				labels.add(bb.getLong());
+				bb.getInt();
+			}
+		}
+		final long[] sortedLabels = labels.toArray();
+		Arrays.sort(sortedLabels);
+		return sortedLabels;
+	}
+
+	private byte[] serializeLabels(final long[] labels) {
+
+		final int numElements = labels.length;
+		if (offsets.length < numElements)
+			offsets = new int[numElements];
+		lists.clear();
+		labelOffsets.clear();
+
+		for (int i = 0; i < numElements; ++i) {
+			final long label = labels[i];
+			int listOffset = labelOffsets.get(label);
+			if (listOffset == NO_OFFSET) {
+				listOffset = lists.position();
+				ensureCapacity(Integer.BYTES + ENTRY_SIZE_IN_BYTES);
+				lists.putInt(1);
+				lists.putLong(label);
+				lists.putInt(1);
+				labelOffsets.put(label, listOffset);
+			}
+			offsets[i] = listOffset;
+		}
+
+		return toBytes(numElements, labels);
+	}
+
+	private byte[] serializeBlock(final Iterable<LabelMultisetType> source, final int numElements, final long defaultLabelId) {
+
+		if (argMax.length < numElements) {
+			argMax = new long[numElements];
+			offsets = new int[numElements];
+		}
+		lists.clear();
+		offsetsByHash.clear();
+		isEmpty = true;
+
+		int i = 0;
+		for (final LabelMultisetType lmt : source) {
+			final int listOffset = lists.position();
+			argMax[i] = appendList(lmt, defaultLabelId);
+			offsets[i++] = deduplicate(listOffset);
+		}
+
+		return toBytes(numElements, argMax);
+	}
+
+	private byte[] remapBlock(final byte[] data, final LongUnaryOperator lookup) {
+
+		final ByteBuffer bb = ByteBuffer.wrap(data);
+		final int numElements = bb.getInt();
+		if (argMax.length < numElements) {
+			argMax = new long[numElements];
+			offsets = new int[numElements];
+		}
+		lists.clear();
+		offsetsByHash.clear();
+		remappedOffsets.clear();
+		remappedArgMax.clear();
+
+		final int sourceListsOffset = Integer.BYTES + numElements * (Long.BYTES + Integer.BYTES);
+		final ByteBuffer sourceLists = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+		bb.position(Integer.BYTES + numElements * Long.BYTES);
+		for (int i = 0; i < numElements; ++i) {
+			final int sourceOffset = bb.getInt();
+			if (remappedOffsets.containsKey(sourceOffset)) {
+				offsets[i] = remappedOffsets.get(sourceOffset);
+				argMax[i] = remappedArgMax.get(sourceOffset);
+				continue;
+			}
+
+			sourceLists.position(sourceListsOffset + sourceOffset);
+			final int sourceSize = sourceLists.getInt();
+			mergedCounts.clear();
+			for (int j = 0; j < sourceSize; ++j) {
+				final long id = lookup.applyAsLong(sourceLists.getLong());
+				final int count = sourceLists.getInt();
+				mergedCounts.adjustOrPutValue(id, count, count);
+			}
+			final long[] ids = mergedCounts.keys();
+			Arrays.sort(ids);
+
+			final int listOffset = lists.position();
+			ensureCapacity(Integer.BYTES + ids.length * ENTRY_SIZE_IN_BYTES);
+			lists.putInt(ids.length);
+			long listArgMax = Label.INVALID;
+			int maxCount = 0;
+			for (final long id : ids) {
+				final int count = mergedCounts.get(id);
+				lists.putLong(id);
+				lists.putInt(count);
+				if (count > maxCount) {
+					maxCount = count;
+					listArgMax = id;
+				}
+			}
+			offsets[i] = deduplicate(listOffset);
+			argMax[i] = listArgMax;
+			remappedOffsets.put(sourceOffset, offsets[i]);
+			remappedArgMax.put(sourceOffset, listArgMax);
+		}
+
+		return toBytes(numElements, argMax);
+	}
+
+	private byte[] patchBlock(final byte[] data, final TIntLongHashMap labelsByIndex) {
+
+		final ByteBuffer bb = ByteBuffer.wrap(data);
+		final int numElements = bb.getInt();
+		if (argMax.length < numElements) {
+			argMax = new long[numElements];
+			offsets = new int[numElements];
+		}
+		lists.clear();
+		offsetsByHash.clear();
+		remappedOffsets.clear();
+
+		final int sourceListsOffset = Integer.BYTES + numElements * (Long.BYTES + Integer.BYTES);
+		final ByteBuffer sourceLists = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+		final int sourceOffsetsOffset = Integer.BYTES + numElements * Long.BYTES;
+		for (int i = 0; i < numElements; ++i) {
+			final int sourceOffset = bb.getInt(sourceOffsetsOffset + i * Integer.BYTES);
+			sourceLists.position(sourceListsOffset + sourceOffset);
+			final int sourceSize = sourceLists.getInt();
+
+			if (labelsByIndex.containsKey(i)) {
+				long count = 0;
+				for (int j = 0; j < sourceSize; ++j) {
+					sourceLists.getLong();
+					count += sourceLists.getInt();
+				}
+				final long label = labelsByIndex.get(i);
+				final int listOffset = lists.position();
+				ensureCapacity(Integer.BYTES + ENTRY_SIZE_IN_BYTES);
+				lists.putInt(1);
+				lists.putLong(label);
+				lists.putInt((int)Math.max(1, count));
+				offsets[i] = deduplicate(listOffset);
+				argMax[i] = label;
+			} else {
+				argMax[i] = bb.getLong(Integer.BYTES + i * Long.BYTES);
+				if (remappedOffsets.containsKey(sourceOffset))
+					offsets[i] = remappedOffsets.get(sourceOffset);
+				else {
+					final int listOffset = lists.position();
+					final int listSize = Integer.BYTES + sourceSize * ENTRY_SIZE_IN_BYTES;
+					ensureCapacity(listSize);
+					lists.put(data, sourceListsOffset + sourceOffset, listSize);
+					offsets[i] = deduplicate(listOffset);
+					remappedOffsets.put(sourceOffset, offsets[i]);
+				}
+			}
+		}
+
+		return toBytes(numElements, argMax);
+	}
+
+	private byte[] toBytes(final int numElements, final long[] argMax) {
+
+		final int listsSize = lists.position();
+		final byte[] bytes = new byte[Integer.BYTES + numElements * (Long.BYTES + Integer.BYTES) + listsSize];
+		final ByteBuffer bb = ByteBuffer.wrap(bytes);
+		bb.putInt(numElements);
+		for (int j = 0; j < numElements; ++j)
+			bb.putLong(argMax[j]);
+		for (int j = 0; j < numElements; ++j)
+			bb.putInt(offsets[j]);
+		bb.put(lists.array(), 0, listsSize);
+
+		return bytes;
+	}
+
+	/**
+	 * Append the entry list of a {@link LabelMultisetType} and return its
+	 * argmax, i.e. the first label with the highest count.
+	 */
+	private long appendList(final LabelMultisetType lmt, final long defaultLabelId) {
+
+		final int size = lmt.entrySet().size();
+		ensureCapacity(Integer.BYTES + size * ENTRY_SIZE_IN_BYTES);
+		lists.putInt(size);
+
+		long argMax = Label.INVALID;
+		int maxCount = 0;
+		for (final Entry<Label> entry : lmt.entrySet()) {
+			final long id = entry.getElement().id();
+			final int count = entry.getCount();
+			lists.putLong(id);
+			lists.putInt(count);
+			if (count > maxCount) {
+				maxCount = count;
+				argMax = id;
+			}
+			if (isEmpty && id != defaultLabelId)
+				isEmpty = false;
+		}
+		return argMax;
+	}
+
+	/**
+	 * If the list that was just appended at listOffset is identical to a
+	 * previous one, remove it and return the offset of the previous list,
+	 * otherwise return listOffset.
+	 */
+	private int deduplicate(final int listOffset) {
+
+		final byte[] data = lists.array();
+		final int listEnd = lists.position();
+		final int listSize = listEnd - listOffset;
+
+		int hash = 1;
+		for (int j = listOffset; j < listEnd; ++j)
+			hash = 31 * hash + data[j];
+
+		TIntArrayList candidates = offsetsByHash.get(hash);
+		if (candidates == null) {
+			candidates = new TIntArrayList(1);
+			offsetsByHash.put(hash, candidates);
+		} else {
+			for (int k = 0; k < candidates.size(); ++k) {
+				final int candidate = candidates.get(k);
+				if (candidate + listSize <= listOffset &&
+						rangeEquals(data, candidate, listOffset, listSize)) {
+					lists.position(listOffset);
+					return candidate;
+				}
+			}
+		}
+		candidates.add(listOffset);
+		return listOffset;
+	}
+
+	private static boolean rangeEquals(final byte[] data, final int a, final int b, final int length) {
+
+		for (int j = 0; j < length; ++j)
+			if (data[a + j] != data[b + j])
+				return false;
+		return true;
+	}
+
+	private void ensureCapacity(final int numBytes) {
+
+		if (lists.remaining() < numBytes) {
+			final int position = lists.position();
+			final byte[] data = Arrays.copyOf(lists.array(), Math.max(2 * lists.capacity(), position + numBytes));
+			lists = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+			lists.position(position);
+		}
+	}
+}
@@ -1,8 +1,17 @@
 package org.janelia.saalfeldlab.n5.imglib2;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DataType;
 import org.janelia.saalfeldlab.n5.DatasetAttributes;
 import org.janelia.saalfeldlab.n5.N5Reader;
 import org.janelia.saalfeldlab.n5.N5Writer;
@@ -11,13 +20,30 @@ import net.imglib2.Cursor;
 import net.imglib2.FinalInterval;
 import net.imglib2.Interval;
 import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessible;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealRandomAccess;
 import net.imglib2.RealRandomAccessible;
+import net.imglib2.cache.Cache;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.cache.img.CellLoader;
+import net.imglib2.cache.img.LoadedCellCacheLoader;
+import net.imglib2.cache.ref.SoftRefLoaderCache;
 import net.imglib2.converter.Converter;
 import net.imglib2.converter.Converters;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.AccessFlags;
+import net.imglib2.img.basictypeaccess.ArrayDataAccessFactory;
+import net.imglib2.img.basictypeaccess.array.DoubleArray;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
 import net.imglib2.interpolation.InterpolatorFactory;
 import net.imglib2.interpolation.randomaccess.NLinearInterpolatorFactory;
+import net.imglib2.iterator.LocalizingIntervalIterator;
 import net.imglib2.realtransform.AffineGet;
 import net.imglib2.realtransform.AffineTransform;
 import net.imglib2.realtransform.AffineTransform2D;
@@ -45,7 +71,8 @@ import net.imglib2.type.numeric.integer.UnsignedLongType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
 import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.type.numeric.real.FloatType;
-import net.imglib2.util.Util;
+import net.imglib2.util.IntervalIndexer;
+import net.imglib2.util.Intervals;
 import net.imglib2.view.IntervalView;
 import net.imglib2.view.MixedTransformView;
 import net.imglib2.view.Views;
@@ -59,6 +86,9 @@ import net.imglib2.view.Views;
 public class N5DisplacementField
 {
 	public static final String MULTIPLIER_ATTR = "quantization_multiplier";
+	public static final String MULTIPLIERS_ATTR = "quantization_multipliers";
+	public static final String MAX_ERRORS_ATTR = "quantization_max_errors";
+	public static final String FLOAT16_ATTR = "float16";
 	public static final String AFFINE_ATTR = "affine";
 	public static final String SPACING_ATTR = "spacing";
 	public static final String FORWARD_ATTR = "dfield";
@@ -95,34 +125,936 @@ public class N5DisplacementField
 	    save( n5Writer, INVERSE_ATTR, affine.inverse(), inverseDfield, invspacing, blockSize, compression );
 	}
 
+    /**
+     * Saves forward and inverse deformation fields into the default n5 datasets
+     * in parallel by block.  If concurrent, the forward and inverse fields
+     * are written at the same time, sharing the {@link ExecutorService}.
+     *
+     * @param n5Writer
+     * @param affine
+     * @param forwardDfield
+     * @param fwdspacing the pixel spacing (resolution) of the forward deformation field
+     * @param inverseDfield
+     * @param invspacing the pixel spacing (resolution) of the inverse deformation field
+     * @param blockSize 
+     * @param compression
+     * @param exec
+     * @param concurrent write forward and inverse fields concurrently
+     */ 
+	public static final <T extends NativeType<T> & RealType<T>> void save(
+			final N5Writer n5Writer,
+			final AffineGet affine,
+			final RandomAccessibleInterval< T > forwardDfield,
+			final double[] fwdspacing,
+			final RandomAccessibleInterval< T > inverseDfield,
+			final double[] invspacing,
+			final int[] blockSize,
+			final Compression compression,
+			final ExecutorService exec,
+			final boolean concurrent ) throws IOException, InterruptedException, ExecutionException
+	{
+		if( !concurrent )
+		{
+			save( n5Writer, FORWARD_ATTR, affine, forwardDfield, fwdspacing, blockSize, compression, exec );
+			save( n5Writer, INVERSE_ATTR, affine.inverse(), inverseDfield, invspacing, blockSize, compression, exec );
+			return;
+		}
+
+		/*
+		 * The inverse is coordinated from its own thread rather than from
+		 * exec, so that waiting for its blocks cannot starve exec.
+		 */
+		final ExecutorService inverseExec = Executors.newSingleThreadExecutor();
+		final Future< Void > inverse = inverseExec.submit( () -> {
+			save( n5Writer, INVERSE_ATTR, affine.inverse(), inverseDfield, invspacing, blockSize, compression, exec );
+			return null;
+		} );
+		boolean saved = false;
+		try
+		{
+			save( n5Writer, FORWARD_ATTR, affine, forwardDfield, fwdspacing, blockSize, compression, exec );
+			inverse.get();
+			saved = true;
+		}
+		finally
+		{
+			if( !saved )
+				inverse.cancel( true );
+			inverseExec.shutdown();
+		}
+	}
+
     /**
      * Saves an affine transform and deformation field into a specified n5 dataset.
      *
      *
      * @param n5Writer
-     * @param dataset
-     * @param affine
-     * @param dfield
-     * @param spacing the pixel spacing (resolution) of the deformation field
-     * @param blockSize
+     * @param dataset
+     * @param affine
+     * @param dfield
+     * @param spacing the pixel spacing (resolution) of the deformation field
+     * @param blockSize
+     * @param compression
+     */
+	public static final <T extends NativeType<T> & RealType<T>> void save(
+			final N5Writer n5Writer,
+			final String dataset,
+			final AffineGet affine,
+			final RandomAccessibleInterval< T > dfield,
+			final double[] spacing,
+			final int[] blockSize,
+			final Compression compression ) throws IOException
+	{
+		N5Utils.save( dfield, n5Writer, dataset, blockSize, compression );
+		clearEncoding( n5Writer, dataset );
+
+        if( affine != null )
+            saveAffine( affine, n5Writer, dataset );
+
+		if( spacing != null )
+			n5Writer.setAttribute( dataset, SPACING_ATTR, spacing );
+	}
+
+    /**
+     * Saves an affine transform and deformation field into a specified n5
+     * dataset in parallel by block.
+     *
+     * @param n5Writer
+     * @param dataset
+     * @param affine
+     * @param dfield
+     * @param spacing the pixel spacing (resolution) of the deformation field
+     * @param blockSize
+     * @param compression
+     * @param exec
+     */
+	public static final <T extends NativeType<T> & RealType<T>> void save(
+			final N5Writer n5Writer,
+			final String dataset,
+			final AffineGet affine,
+			final RandomAccessibleInterval< T > dfield,
+			final double[] spacing,
+			final int[] blockSize,
+			final Compression compression,
+			final ExecutorService exec ) throws IOException, InterruptedException, ExecutionException
+	{
+		N5Utils.save( dfield, n5Writer, dataset, blockSize, compression, exec );
+		clearEncoding( n5Writer, dataset );
+
+		if( affine != null )
+			saveAffine( affine, n5Writer, dataset );
+
+		if( spacing != null )
+			n5Writer.setAttribute( dataset, SPACING_ATTR, spacing );
+	}
+
+    /**
+     * Saves an affine transform and deformation field into a specified n5
+     * dataset as half precision (IEEE 754 binary16) floats in parallel by
+     * block.  The half precision bits are stored as UINT16 and the dataset
+     * is marked with the {@link #FLOAT16_ATTR} attribute, {@link #openField}
+     * decodes them to {@link FloatType} while cells are loaded.  Compared to
+     * float32, the stored size is halved, the relative error is below
+     * 2^-11 for magnitudes between 2^-14 and 65504, and unlike quantization
+     * no range dependent multiplier is needed.
+     *
+     * @param n5Writer
+     * @param dataset
+     * @param affine
+     * @param dfield
+     * @param spacing the pixel spacing (resolution) of the deformation field
+     * @param blockSize
+     * @param compression
+     * @param exec
+     */
+	public static final <T extends RealType<T>> void saveHalf(
+			final N5Writer n5Writer,
+			final String dataset,
+			final AffineGet affine,
+			final RandomAccessibleInterval< T > dfield,
+			final double[] spacing,
+			final int[] blockSize,
+			final Compression compression,
+			final ExecutorService exec ) throws IOException, InterruptedException, ExecutionException
+	{
+		RandomAccessibleInterval< UnsignedShortType > dfield_half = Converters.convert(
+				dfield,
+				new Converter<T, UnsignedShortType>()
+				{
+					@Override
+					public void convert(T input, UnsignedShortType output)
+					{
+						output.set( toHalf( input.getRealFloat() ) );
+					}
+				},
+				new UnsignedShortType());
+
+		N5Utils.save( dfield_half, n5Writer, dataset, blockSize, compression, exec );
+		clearEncoding( n5Writer, dataset );
+		n5Writer.setAttribute( dataset, FLOAT16_ATTR, true );
+
+		if( affine != null )
+			saveAffine( affine, n5Writer, dataset );
+
+		if( spacing != null )
+			n5Writer.setAttribute( dataset, SPACING_ATTR, spacing );
+	}
+
+	/**
+	 * Returns the IEEE 754 binary16 bits of a float, rounded to nearest
+	 * even, overflowing to infinity.
+	 */
+	static int toHalf( final float value )
+	{
+		final int bits = Float.floatToIntBits( value );
+		final int sign = ( bits >>> 16 ) & 0x8000;
+		final int exponent = ( bits >>> 23 ) & 0xff;
+		int mantissa = bits & 0x7fffff;
+
+		if( exponent == 0xff )
+			return sign | 0x7c00 | ( mantissa == 0 ? 0 : 0x200 );
+
+		final int e = exponent - 127 + 15;
+		if( e >= 0x1f )
+			return sign | 0x7c00;
+
+		final int shift;
+		int half;
+		if( e <= 0 )
+		{
+			/* subnormal */
+			if( e < -10 )
+				return sign;
+			mantissa |= 0x800000;
+			shift = 14 - e;
+			half = mantissa >> shift;
+		}
+		else
+		{
+			shift = 13;
+			half = e << 10 | mantissa >> shift;
+		}
+
+		/* round to nearest even, a carry into the exponent is correct */
+		final int rest = mantissa & ( ( 1 << shift ) - 1 );
+		final int halfway = 1 << ( shift - 1 );
+		if( rest > halfway || ( rest == halfway && ( half & 1 ) != 0 ) )
+			++half;
+
+		return sign | half;
+	}
+
+	/**
+	 * Returns the float value of IEEE 754 binary16 bits.
+	 */
+	static float fromHalf( final int half )
+	{
+		final int sign = ( half & 0x8000 ) << 16;
+		final int exponent = ( half >>> 10 ) & 0x1f;
+		final int mantissa = half & 0x3ff;
+
+		if( exponent == 0x1f )
+			return Float.intBitsToFloat( sign | 0x7f800000 | mantissa << 13 );
+
+		if( exponent == 0 )
+		{
+			/* zero or subnormal */
+			final float value = mantissa * 0x1p-24f;
+			return sign == 0 ? value : -value;
+		}
+
+		return Float.intBitsToFloat( sign | ( exponent - 15 + 127 ) << 23 | mantissa << 13 );
+	}
+
+    /**
+     * Saves an affine transform and quantized deformation field into a specified n5 dataset.
+     *
+     * The deformation field here is saved as an {@link IntegerType}
+     * which could compress better in some cases.  The multiplier from
+     * original values to compressed values is chosen as the smallest
+     * value that keeps the error (L2) between quantized and original vectors. 
+     *
+     * @param n5Writer
+     * @param dataset
+     * @param affine
+     * @param dfield
+     * @param spacing
+     * @param blockSize
+     * @param compression
+     * @param outputType
+     * @param maxError
+     */
+	public static final <T extends NativeType<T> & RealType<T>, Q extends NativeType<Q> & IntegerType<Q>> void save(
+			final N5Writer n5Writer,
+			final String dataset,
+			final AffineGet affine,
+			final RandomAccessibleInterval< T > dfield,
+			final double[] spacing,
+			final int[] blockSize,
+			final Compression compression, 
+			final Q outputType, 
+			final double maxError ) throws Exception
+	{
+		
+		saveQuantized( n5Writer, dataset, dfield, blockSize, compression, outputType, maxError );
+		saveAffine( affine, n5Writer, dataset );
+		if( spacing != null )
+			n5Writer.setAttribute( dataset, SPACING_ATTR, spacing );
+	}
+
+    /**
+     * Saves an affine transform and quantized deformation field into a
+     * specified n5 dataset in parallel by block.  Quantization happens
+     * per block on the threads of the {@link ExecutorService}.
+     *
+     * @param n5Writer
+     * @param dataset
+     * @param affine
+     * @param dfield
+     * @param spacing
+     * @param blockSize
+     * @param compression
+     * @param outputType
+     * @param maxError
+     * @param exec
+     */
+	public static final <T extends NativeType<T> & RealType<T>, Q extends NativeType<Q> & IntegerType<Q>> void save(
+			final N5Writer n5Writer,
+			final String dataset,
+			final AffineGet affine,
+			final RandomAccessibleInterval< T > dfield,
+			final double[] spacing,
+			final int[] blockSize,
+			final Compression compression, 
+			final Q outputType, 
+			final double maxError,
+			final ExecutorService exec ) throws Exception
+	{
+		saveQuantized( n5Writer, dataset, dfield, blockSize, compression, outputType, maxError, exec );
+		saveAffine( affine, n5Writer, dataset );
+		if( spacing != null )
+			n5Writer.setAttribute( dataset, SPACING_ATTR, spacing );
+	}
+
+	/**
+	 * Removes the attributes that mark how the values of a deformation
+	 * field are encoded, i.e. {@link #FLOAT16_ATTR}, {@link #MULTIPLIER_ATTR},
+	 * {@link #MULTIPLIERS_ATTR} and {@link #MAX_ERRORS_ATTR}, from a dataset
+	 * that is being overwritten.  Re-creating a dataset keeps its attributes,
+	 * and {@link #openField} would decode the new values with the markers of
+	 * a previous save otherwise.
+	 *
+	 * @param n5Writer
+	 * @param dataset
+	 */
+	private static void clearEncoding(
+			final N5Writer n5Writer,
+			final String dataset ) throws IOException
+	{
+		/* attributes that are set to null read as absent */
+		final HashMap< String, Object > cleared = new HashMap<>();
+		cleared.put( FLOAT16_ATTR, null );
+		cleared.put( MULTIPLIER_ATTR, null );
+		cleared.put( MULTIPLIERS_ATTR, null );
+		cleared.put( MAX_ERRORS_ATTR, null );
+		n5Writer.setAttributes( dataset, cleared );
+	}
+
+    /**
+     * Saves an affine transform as an attribute associated with an n5
+     * dataset.
+     *
+     * @param affine
+     * @param n5Writer
+     * @param dataset
+     */
+	public static final void saveAffine(
+			final AffineGet affine,
+			final N5Writer n5Writer,
+			final String dataset ) throws IOException
+	{
+		if( affine != null )
+			n5Writer.setAttribute( dataset, AFFINE_ATTR,  affine.getRowPackedCopy() );
+	}
+
+    /**
+     * Saves a multiresolution pyramid of the deformation field stored at
+     * "/0/dataset" into "/level/dataset" for levels 1 to
+     * downsamplingFactors.length, in parallel by block.  Displacements are
+     * averaged over windows that are centered at the coarse pixel
+     * positions, so that the spacing of each level is the spacing of level
+     * 0 multiplied by its factors.  Along odd factors, a window spans
+     * factor fine pixels, along even factors, it spans factor + 1 fine
+     * pixels and the two end samples are weighted 1/2.
+     * Every level is stored as float32 with the vector in the last
+     * dimension, the affine of level 0, its spacing, and its factors in
+     * the {@link N5Downsampling#DOWNSAMPLING_FACTORS_KEY} attribute.
+     *
+     * @param n5Writer
+     * @param dataset e.g. {@link #FORWARD_ATTR} or {@link #INVERSE_ATTR}
+     * @param downsamplingFactors spatial factors of levels 1 to N relative to level 0
+     * @param blockSize spatial block size
+     * @param compression
+     * @param exec
+     */
+	public static final void savePyramid(
+			final N5Writer n5Writer,
+			final String dataset,
+			final long[][] downsamplingFactors,
+			final int[] blockSize,
+			final Compression compression,
+			final ExecutorService exec ) throws Exception
+	{
+		final String s0Dataset = "/0/" + dataset;
+		final RandomAccessibleInterval< DoubleType > field = Views.zeroMin( vectorAxisLast( openField( n5Writer, s0Dataset, new DoubleType() ) ) );
+		final RandomAccessible< DoubleType > extendedField = Views.extendBorder( field );
+		final int n = field.numDimensions() - 1;
+
+		final double[] storedSpacing = n5Writer.getAttribute( s0Dataset, SPACING_ATTR, double[].class );
+		final AffineGet affine = openAffine( n5Writer, s0Dataset );
+
+		final int[] fieldBlockSize = Arrays.copyOf( blockSize, n + 1 );
+		fieldBlockSize[ n ] = n;
+
+		for( int level = 1; level <= downsamplingFactors.length; ++level )
+		{
+			final long[] spatialFactors = downsamplingFactors[ level - 1 ];
+			final long[] factors = Arrays.copyOf( spatialFactors, n + 1 );
+			factors[ n ] = 1;
+
+			final long[] dimensions = new long[ n + 1 ];
+			final double[] spacing = new double[ n ];
+			for( int d = 0; d < n; ++d )
+			{
+				dimensions[ d ] = ( field.dimension( d ) + factors[ d ] - 1 ) / factors[ d ];
+				spacing[ d ] = ( storedSpacing == null ? 1.0 : storedSpacing[ d ] ) * factors[ d ];
+			}
+			dimensions[ n ] = n;
+
+			final String levelDataset = "/" + level + "/" + dataset;
+			final DatasetAttributes attributes = new DatasetAttributes( dimensions, fieldBlockSize, DataType.FLOAT32, compression );
+			n5Writer.createDataset( levelDataset, attributes );
+			clearEncoding( n5Writer, levelDataset );
+
+			final CellGrid grid = new CellGrid( dimensions, fieldBlockSize );
+			final ArrayList< Future< Void > > futures = new ArrayList<>();
+			for( final long[] gridPosition : N5Utils.gridPositions( new FinalInterval( dimensions ), fieldBlockSize ) )
+			{
+				futures.add( exec.submit( () -> {
+					final Interval interval = N5Utils.blockInterval( grid, gridPosition );
+					final ArrayImg< FloatType, ? > block = ArrayImgs.floats( Intervals.dimensionsAsLongArray( interval ) );
+					averageCentered( extendedField, Views.translate( block, Intervals.minAsLongArray( interval ) ), factors );
+					N5Utils.saveBlock( block, n5Writer, levelDataset, attributes, gridPosition );
+					return null;
+				} ) );
+			}
+			for( final Future< Void > f : futures )
+				f.get();
+
+			saveAffine( affine, n5Writer, levelDataset );
+			n5Writer.setAttribute( levelDataset, SPACING_ATTR, spacing );
+			n5Writer.setAttribute( levelDataset, N5Downsampling.DOWNSAMPLING_FACTORS_KEY, spatialFactors );
+		}
+	}
+
+    /**
+     * Averages a source over windows that are centered at the target pixel
+     * positions scaled by the factors.  Windows of even factors span
+     * factor + 1 source pixels whose two end samples are weighted 1/2.
+     *
+     * @param source
+     * @param target
+     * @param factors
+     */
+	private static void averageCentered(
+			final RandomAccessible< DoubleType > source,
+			final RandomAccessibleInterval< FloatType > target,
+			final long[] factors )
+	{
+		final int n = target.numDimensions();
+		final long[] windowMin = new long[ n ];
+		final long[] windowMax = new long[ n ];
+		for( int d = 0; d < n; ++d )
+		{
+			windowMin[ d ] = -factors[ d ] / 2;
+			windowMax[ d ] = factors[ d ] / 2;
+		}
+		final double norm = 1.0 / Intervals.numElements( factors );
+
+		final LocalizingIntervalIterator window = new LocalizingIntervalIterator( windowMin, windowMax );
+		final RandomAccess< DoubleType > sourceAccess = source.randomAccess();
+		final Cursor< FloatType > cursor = Views.flatIterable( target ).localizingCursor();
+		final long[] position = new long[ n ];
+		while( cursor.hasNext() )
+		{
+			cursor.fwd();
+			double sum = 0;
+			window.reset();
+			while( window.hasNext() )
+			{
+				window.fwd();
+				double weight = 1;
+				for( int d = 0; d < n; ++d )
+				{
+					final long offset = window.getLongPosition( d );
+					position[ d ] = cursor.getLongPosition( d ) * factors[ d ] + offset;
+					if( ( factors[ d ] & 1 ) == 0 && Math.abs( offset ) == factors[ d ] / 2 )
+						weight *= 0.5;
+				}
+				sourceAccess.setPosition( position );
+				sum += weight * sourceAccess.get().getRealDouble();
+			}
+			cursor.get().setReal( sum * norm );
+		}
+	}
+
+    /**
+     * Returns the coarsest level of a pyramid written with
+     * {@link #savePyramid} whose spacing is not coarser than the requested
+     * resolution in any dimension, or 0 if there is none.
+     *
+     * @param n5
+     * @param dataset e.g. {@link #FORWARD_ATTR} or {@link #INVERSE_ATTR}
+     * @param resolution the pixel spacing of the output
+     * @return the pyramid level
+     */
+	public static final int pyramidLevel(
+			final N5Reader n5,
+			final String dataset,
+			final double[] resolution ) throws IOException
+	{
+		int bestLevel = 0;
+		double bestVolume = 0;
+		for( int level = 0; n5.datasetExists( "/" + level + "/" + dataset ); ++level )
+		{
+			final double[] spacing = n5.getAttribute( "/" + level + "/" + dataset, SPACING_ATTR, double[].class );
+			double volume = 1;
+			boolean fits = true;
+			for( int d = 0; d < resolution.length; ++d )
+			{
+				final double s = spacing == null ? 1.0 : spacing[ d ];
+				fits &= s <= resolution[ d ] * ( 1 + 1e-9 );
+				volume *= s;
+			}
+			if( fits && volume > bestVolume )
+			{
+				bestLevel = level;
+				bestVolume = volume;
+			}
+		}
+		return bestLevel;
+	}
+
+    /**
+     * Opens a transform from the level of a pyramid written with
+     * {@link #savePyramid} that matches the requested output resolution,
+     * see {@link #pyramidLevel}, using linear interpolation for the
+     * deformation field.
+     *
+     * @param n5
+     * @param dataset e.g. {@link #FORWARD_ATTR} or {@link #INVERSE_ATTR}
+     * @param inverse
+     * @param resolution the pixel spacing of the output
+     * @return the transform
+     */
+	public static final RealTransform open(
+			final N5Reader n5,
+			final String dataset,
+			final boolean inverse,
+			final double[] resolution ) throws Exception
+	{
+		return open( n5, "/" + pyramidLevel( n5, dataset, resolution ) + "/" + dataset, inverse );
+	}
+
+    /**
+     * Warps an n5 image through a stored deformation field into a new
+     * dataset, see
+     * {@link #warp(N5Reader, String, RealTransform, N5Writer, String, long[], int[], Compression, ExecutorService)}.
+     * The field is opened as an {@link N5DisplacementFieldTransform}, and
+     * its physical coordinates are the pixel coordinates of both images.
+     *
+     * @param n5Source
+     * @param sourceDataset
+     * @param n5Field
+     * @param fieldDataset
+     * @param inverse
+     * @param n5Target
+     * @param targetDataset
+     * @param dimensions dimensions of the target image
+     * @param blockSize
+     * @param compression
+     * @param exec
+     */
+	public static final void warp(
+			final N5Reader n5Source,
+			final String sourceDataset,
+			final N5Reader n5Field,
+			final String fieldDataset,
+			final boolean inverse,
+			final N5Writer n5Target,
+			final String targetDataset,
+			final long[] dimensions,
+			final int[] blockSize,
+			final Compression compression,
+			final ExecutorService exec ) throws Exception
+	{
+		warp(
+				n5Source,
+				sourceDataset,
+				N5DisplacementFieldTransform.open( n5Field, fieldDataset, inverse ),
+				n5Target,
+				targetDataset,
+				dimensions,
+				blockSize,
+				compression,
+				exec );
+	}
+
+    /**
+     * Warps an n5 image into a new dataset of the same data type, in
+     * parallel by block.  The transform maps target pixel coordinates to
+     * source pixel coordinates, where the source is interpolated n-linearly
+     * and extended with zero.
+     *
+     * For each target block, all its pixels are transformed first, and
+     * the bounding box of their source positions is copied from the source
+     * into a block-local image.  Only source blocks that intersect it are
+     * read, and memory per task is bounded by the target block and its
+     * source footprint.  Every task uses its own copy of the transform.
+     *
+     * @param n5Source
+     * @param sourceDataset
+     * @param transform from target to source pixel coordinates
+     * @param n5Target
+     * @param targetDataset
+     * @param dimensions dimensions of the target image
+     * @param blockSize
+     * @param compression
+     * @param exec
+     */
+	public static final <T extends NativeType< T > & RealType< T >> void warp(
+			final N5Reader n5Source,
+			final String sourceDataset,
+			final RealTransform transform,
+			final N5Writer n5Target,
+			final String targetDataset,
+			final long[] dimensions,
+			final int[] blockSize,
+			final Compression compression,
+			final ExecutorService exec ) throws IOException, InterruptedException, ExecutionException
+	{
+		final RandomAccessibleInterval< T > source = N5Utils.open( n5Source, sourceDataset );
+		final DatasetAttributes sourceAttributes = n5Source.getDatasetAttributes( sourceDataset );
+		final T type = N5Utils.type( sourceAttributes.getDataType() );
+		final int n = dimensions.length;
+
+		final DatasetAttributes attributes = new DatasetAttributes( dimensions, blockSize, sourceAttributes.getDataType(), compression );
+		n5Target.createDataset( targetDataset, attributes );
+
+		final CellGrid grid = new CellGrid( dimensions, blockSize );
+		final ArrayList< Future< Void > > futures = new ArrayList<>();
+		for( final long[] gridPosition : N5Utils.gridPositions( new FinalInterval( dimensions ), blockSize ) )
+		{
+			final RealTransform copy = transform.copy();
+			futures.add( exec.submit( () -> {
+				final Interval interval = N5Utils.blockInterval( grid, gridPosition );
+				final int numPixels = ( int ) Intervals.numElements( interval );
+
+				/* source positions of all target pixels and their bounding box */
+				final double[] positions = new double[ numPixels * n ];
+				final double[] sourceMin = new double[ n ];
+				final double[] sourceMax = new double[ n ];
+				Arrays.fill( sourceMin, Double.POSITIVE_INFINITY );
+				Arrays.fill( sourceMax, Double.NEGATIVE_INFINITY );
+				final LocalizingIntervalIterator pixels = new LocalizingIntervalIterator( interval );
+				final double[] p = new double[ n ];
+				final double[] q = new double[ n ];
+				for( int i = 0; i < numPixels; ++i )
+				{
+					pixels.fwd();
+					pixels.localize( p );
+					copy.apply( p, q );
+					for( int d = 0; d < n; ++d )
+					{
+						positions[ i * n + d ] = q[ d ];
+						sourceMin[ d ] = Math.min( sourceMin[ d ], q[ d ] );
+						sourceMax[ d ] = Math.max( sourceMax[ d ], q[ d ] );
+					}
+				}
+
+				final ArrayImg< T, ? > targetBlock = new ArrayImgFactory<>( type ).create( interval );
+
+				/* n-linear interpolation reads the floor and floor + 1 */
+				final long[] boxMin = new long[ n ];
+				final long[] boxMax = new long[ n ];
+				boolean isEmpty = false;
+				for( int d = 0; d < n; ++d )
+				{
+					boxMin[ d ] = Math.max( source.min( d ), ( long )Math.floor( sourceMin[ d ] ) );
+					boxMax[ d ] = Math.min( source.max( d ), ( long )Math.floor( sourceMax[ d ] ) + 1 );
+					isEmpty |= boxMin[ d ] > boxMax[ d ];
+				}
+
+				if( !isEmpty )
+				{
+					final FinalInterval box = new FinalInterval( boxMin, boxMax );
+					final ArrayImg< T, ? > sourceBlock = new ArrayImgFactory<>( type ).create( Intervals.dimensionsAsLongArray( box ) );
+					final Cursor< T > sourceCursor = Views.flatIterable( Views.interval( source, box ) ).cursor();
+					for( final T t : sourceBlock )
+						t.set( sourceCursor.next() );
+
+					final RealRandomAccess< T > interpolant = Views.interpolate(
+							Views.extendZero( Views.translate( sourceBlock, boxMin ) ),
+							new NLinearInterpolatorFactory< T >() ).realRandomAccess();
+					final Cursor< T > targetCursor = targetBlock.cursor();
+					for( int i = 0; i < numPixels; ++i )
+					{
+						for( int d = 0; d < n; ++d )
+							interpolant.setPosition( positions[ i * n + d ], d );
+						targetCursor.next().setReal( interpolant.get().getRealDouble() );
+					}
+				}
+
+				N5Utils.saveBlock( targetBlock, n5Target, targetDataset, attributes, gridPosition );
+				return null;
+			} ) );
+		}
+		for( final Future< Void > f : futures )
+			f.get();
+	}
+
+    /**
+     * Samples a {@link RealTransform} onto a grid and saves it as a
+     * deformation field into a specified n5 dataset, in parallel by block.
+     * The displacement at pixel x is T(x * spacing) - x * spacing.  The
+     * field is stored as float32 with the vector in the last dimension,
+     * with the spacing and without an affine, such that {@link #open}
+     * replaces a costly transform, e.g. a {@link RealTransformSequence} of
+     * affines and deformation fields, by one interpolated lookup.
+     * Every task uses its own copy of the transform.
+     *
+     * @param n5Writer
+     * @param dataset
+     * @param transform
+     * @param dimensions spatial dimensions of the sampling grid
+     * @param spacing the pixel spacing (resolution) of the sampling grid
+     * @param blockSize spatial block size
+     * @param compression
+     * @param exec
+     */
+	public static final void saveSampled(
+			final N5Writer n5Writer,
+			final String dataset,
+			final RealTransform transform,
+			final long[] dimensions,
+			final double[] spacing,
+			final int[] blockSize,
+			final Compression compression,
+			final ExecutorService exec ) throws IOException, InterruptedException, ExecutionException
+	{
+		final int n = dimensions.length;
+		final long[] fieldDimensions = Arrays.copyOf( dimensions, n + 1 );
+		fieldDimensions[ n ] = n;
+		final int[] fieldBlockSize = Arrays.copyOf( blockSize, n + 1 );
+		fieldBlockSize[ n ] = n;
+		final DatasetAttributes attributes = new DatasetAttributes( fieldDimensions, fieldBlockSize, DataType.FLOAT32, compression );
+		n5Writer.createDataset( dataset, attributes );
+		clearEncoding( n5Writer, dataset );
+
+		final CellGrid grid = new CellGrid( dimensions, blockSize );
+		final ArrayList< Future< Void > > futures = new ArrayList<>();
+		for( final long[] gridPosition : N5Utils.gridPositions( new FinalInterval( dimensions ), blockSize ) )
+		{
+			final RealTransform copy = transform.copy();
+			futures.add( exec.submit( () -> {
+				final Interval interval = N5Utils.blockInterval( grid, gridPosition );
+				final int numPixels = ( int ) Intervals.numElements( interval );
+
+				final float[] displacements = new float[ numPixels * n ];
+				final LocalizingIntervalIterator pixels = new LocalizingIntervalIterator( interval );
+				final double[] source = new double[ n ];
+				final double[] target = new double[ n ];
+				for( int i = 0; i < numPixels; ++i )
+				{
+					pixels.fwd();
+					for( int d = 0; d < n; ++d )
+						source[ d ] = pixels.getLongPosition( d ) * spacing[ d ];
+					copy.apply( source, target );
+					for( int d = 0; d < n; ++d )
+						displacements[ i + d * numPixels ] = ( float )( target[ d ] - source[ d ] );
+				}
+
+				final long[] blockDimensions = Arrays.copyOf( Intervals.dimensionsAsLongArray( interval ), n + 1 );
+				blockDimensions[ n ] = n;
+				N5Utils.saveBlock( ArrayImgs.floats( displacements, blockDimensions ), n5Writer, dataset, attributes, Arrays.copyOf( gridPosition, n + 1 ) );
+				return null;
+			} ) );
+		}
+		for( final Future< Void > f : futures )
+			f.get();
+
+		n5Writer.setAttribute( dataset, SPACING_ATTR, spacing );
+	}
+
+    /**
+     * Computes the inverse of the deformation field stored in the default
+     * forward dataset and saves it into the default inverse dataset, see
+     * {@link #saveInverse(N5Writer, String, String, int[], Compression, double, int, ExecutorService)}.
+     *
+     * @param n5Writer
+     * @param blockSize spatial block size of the inverse field
+     * @param compression
+     * @param tolerance
+     * @param maxIterations
+     * @param exec
+     * @return the maximum residual error per block
+     */
+	public static final RandomAccessibleInterval< DoubleType > saveInverse(
+			final N5Writer n5Writer,
+			final int[] blockSize,
+			final Compression compression,
+			final double tolerance,
+			final int maxIterations,
+			final ExecutorService exec ) throws Exception
+	{
+		return saveInverse( n5Writer, FORWARD_ATTR, INVERSE_ATTR, blockSize, compression, tolerance, maxIterations, exec );
+	}
+
+    /**
+     * Computes the inverse of a stored deformation field and saves it with
+     * the inverse affine and the spacing of the forward field, such that
+     * {@link #openInvertible} can use it.
+     *
+     * The inverse displacement e at position z is found by the fixed point
+     * iteration x = z - d(x) until the residual |x + d(x) - z| is below
+     * tolerance or maxIterations are reached, then e(z) = x - z.  Blocks
+     * of the inverse field are computed in parallel.  The forward field is
+     * read through an {@link N5DisplacementFieldTransform} whose tiles are
+     * the blocks of the forward dataset, loaded on demand and shared by all
+     * tasks through a soft reference cache.  Each task therefore only loads
+     * the forward blocks that its iterations reach, and the forward field is
+     * never copied as a whole.  The iteration converges where the field is
+     * invertible, i.e. its Jacobian has no eigenvalues of magnitude larger
+     * than one.
+     *
+     * @param n5Writer
+     * @param forwardDataset
+     * @param inverseDataset
+     * @param blockSize spatial block size of the inverse field
      * @param compression
+     * @param tolerance
+     * @param maxIterations
+     * @param exec
+     * @return the maximum residual error per block
      */
-	public static final <T extends NativeType<T> & RealType<T>> void save(
+	public static final RandomAccessibleInterval< DoubleType > saveInverse(
 			final N5Writer n5Writer,
-			final String dataset,
-			final AffineGet affine,
-			final RandomAccessibleInterval< T > dfield,
-			final double[] spacing,
+			final String forwardDataset,
+			final String inverseDataset,
 			final int[] blockSize,
-			final Compression compression ) throws IOException
+			final Compression compression,
+			final double tolerance,
+			final int maxIterations,
+			final ExecutorService exec ) throws Exception
 	{
-		N5Utils.save( dfield, n5Writer, dataset, blockSize, compression );
+		final RandomAccessibleInterval< DoubleType > field = Views.zeroMin( vectorAxisLast( openField( n5Writer, forwardDataset, new DoubleType() ) ) );
+		final int n = field.numDimensions() - 1;
+		final long[] dimensions = new long[ n ];
+		final int[] fieldBlockSize = new int[ n + 1 ];
+		for( int d = 0; d < n; ++d )
+		{
+			dimensions[ d ] = field.dimension( d );
+			fieldBlockSize[ d ] = blockSize[ d ];
+		}
+		fieldBlockSize[ n ] = n;
 
-        if( affine != null )
-            saveAffine( affine, n5Writer, dataset );
+		final double[] storedSpacing = n5Writer.getAttribute( forwardDataset, SPACING_ATTR, double[].class );
+		final double[] spacing = new double[ n ];
+		Arrays.setAll( spacing, d -> storedSpacing == null ? 1.0 : storedSpacing[ d ] );
 
-		if( spacing != null )
-			n5Writer.setAttribute( dataset, SPACING_ATTR, spacing );
+		/* the forward field in physical coordinates, tiled by the blocks of the forward dataset */
+		final N5DisplacementFieldTransform forward = new N5DisplacementFieldTransform(
+				field,
+				spacing,
+				null,
+				false,
+				N5DisplacementFieldTransform.tileSize( n5Writer.getDatasetAttributes( forwardDataset ) ) );
+
+		final long[] inverseDimensions = Arrays.copyOf( dimensions, n + 1 );
+		inverseDimensions[ n ] = n;
+		final DatasetAttributes attributes = new DatasetAttributes( inverseDimensions, fieldBlockSize, DataType.FLOAT32, compression );
+		n5Writer.createDataset( inverseDataset, attributes );
+		clearEncoding( n5Writer, inverseDataset );
+
+		final CellGrid grid = new CellGrid( dimensions, blockSize );
+		final ArrayImg< DoubleType, ? > residuals = ArrayImgs.doubles( grid.getGridDimensions() );
+
+		final ArrayList< Future< Void > > futures = new ArrayList<>();
+		for( final long[] gridPosition : N5Utils.gridPositions( new FinalInterval( dimensions ), blockSize ) )
+		{
+			final N5DisplacementFieldTransform copy = forward.copy();
+			futures.add( exec.submit( () -> {
+				final Interval interval = N5Utils.blockInterval( grid, gridPosition );
+				final int numPixels = ( int ) Intervals.numElements( interval );
+
+				final float[] inverse = new float[ numPixels * n ];
+				final LocalizingIntervalIterator pixels = new LocalizingIntervalIterator( interval );
+				final double[] z = new double[ n ];
+				final double[] x = new double[ n ];
+				final double[] f = new double[ n ];
+				double maxResidual = 0;
+				for( int i = 0; i < numPixels; ++i )
+				{
+					pixels.fwd();
+					for( int d = 0; d < n; ++d )
+					{
+						z[ d ] = pixels.getLongPosition( d ) * spacing[ d ];
+						x[ d ] = z[ d ];
+					}
+
+					double residual = Double.MAX_VALUE;
+					for( int k = 0; k <= maxIterations; ++k )
+					{
+						/* f = x + d(x) - z */
+						copy.apply( x, f );
+						residual = 0;
+						for( int d = 0; d < n; ++d )
+						{
+							f[ d ] -= z[ d ];
+							residual += f[ d ] * f[ d ];
+						}
+						residual = Math.sqrt( residual );
+						if( residual <= tolerance || k == maxIterations )
+							break;
+						for( int d = 0; d < n; ++d )
+							x[ d ] -= f[ d ];
+					}
+					maxResidual = Math.max( maxResidual, residual );
+
+					for( int d = 0; d < n; ++d )
+						inverse[ i + d * numPixels ] = ( float )( x[ d ] - z[ d ] );
+				}
+
+				final long[] blockDimensions = Arrays.copyOf( Intervals.dimensionsAsLongArray( interval ), n + 1 );
+				blockDimensions[ n ] = n;
+				N5Utils.saveBlock( ArrayImgs.floats( inverse, blockDimensions ), n5Writer, inverseDataset, attributes, Arrays.copyOf( gridPosition, n + 1 ) );
+
+				final RandomAccess< DoubleType > residualAccess = residuals.randomAccess();
+				residualAccess.setPosition( gridPosition );
+				residualAccess.get().set( maxResidual );
+				return null;
+			} ) );
+		}
+		for( final Future< Void > f : futures )
+			f.get();
+
+		final AffineGet affine = openAffine( n5Writer, forwardDataset );
+		if( affine != null )
+			saveAffine( affine.inverse(), n5Writer, inverseDataset );
+		if( storedSpacing != null )
+			n5Writer.setAttribute( inverseDataset, SPACING_ATTR, storedSpacing );
+
+		return residuals;
 	}
 
     /**
@@ -135,56 +1067,169 @@ public class N5DisplacementField
      *
      * @param n5Writer
      * @param dataset
-     * @param affine
-     * @param dfield
-     * @param spacing
+     * @param source
      * @param blockSize
      * @param compression
      * @param outputType
      * @param maxError
      */
-	public static final <T extends NativeType<T> & RealType<T>, Q extends NativeType<Q> & IntegerType<Q>> void save(
+	public static final <T extends RealType<T>, Q extends NativeType<Q> & IntegerType<Q>> void saveQuantized(
 			final N5Writer n5Writer,
 			final String dataset,
-			final AffineGet affine,
-			final RandomAccessibleInterval< T > dfield,
-			final double[] spacing,
+			final RandomAccessibleInterval<T> source,
 			final int[] blockSize,
-			final Compression compression, 
-			final Q outputType, 
-			final double maxError ) throws Exception
+			final Compression compression,
+			final Q outputType,
+            final double maxError ) throws Exception
 	{
-		
-		saveQuantized( n5Writer, dataset, dfield, blockSize, compression, outputType, maxError );
-		saveAffine( affine, n5Writer, dataset );
-		if( spacing != null )
-			n5Writer.setAttribute( dataset, SPACING_ATTR, spacing );
+		final double m = quantizationMultiplier( source, maxError );
+		N5Utils.save( quantize( vectorAxisFirst( source ), outputType, m ), n5Writer, dataset, blockSize, compression );
+		clearEncoding( n5Writer, dataset );
+		n5Writer.setAttribute( dataset, MULTIPLIER_ATTR, m );
 	}
 
     /**
-     * Saves an affine transform as an attribute associated with an n5
-     * dataset.
+     * Saves a quantized deformation field into a specified n5 dataset in
+     * parallel by block.  The quantizing {@link Converter} is evaluated
+     * per block on the threads of the {@link ExecutorService}.
      *
-     * @param affine
      * @param n5Writer
      * @param dataset
+     * @param source
+     * @param blockSize
+     * @param compression
+     * @param outputType
+     * @param maxError
+     * @param exec
      */
-	public static final void saveAffine(
-			final AffineGet affine,
+	public static final <T extends RealType<T>, Q extends NativeType<Q> & IntegerType<Q>> void saveQuantized(
 			final N5Writer n5Writer,
-			final String dataset ) throws IOException
+			final String dataset,
+			final RandomAccessibleInterval<T> source,
+			final int[] blockSize,
+			final Compression compression,
+			final Q outputType,
+			final double maxError,
+			final ExecutorService exec ) throws Exception
 	{
-		if( affine != null )
-			n5Writer.setAttribute( dataset, AFFINE_ATTR,  affine.getRowPackedCopy() );
+		final double m = quantizationMultiplier( source, maxError );
+		N5Utils.save( quantize( vectorAxisFirst( source ), outputType, m ), n5Writer, dataset, blockSize, compression, exec );
+		clearEncoding( n5Writer, dataset );
+		n5Writer.setAttribute( dataset, MULTIPLIER_ATTR, m );
 	}
 
     /**
-     * Saves an affine transform and quantized deformation field into a specified n5 dataset.
+     * Saves a quantized deformation field into a specified n5 dataset in
+     * parallel by block, using the type and multiplier of a
+     * {@link Quantization} plan.
      *
-     * The deformation field here is saved as an {@link IntegerType}
-     * which could compress better in some cases.  The multiplier from
-     * original values to compressed values is chosen as the smallest
-     * value that keeps the error (L2) between quantized and original vectors. 
+     * @param n5Writer
+     * @param dataset
+     * @param source
+     * @param blockSize
+     * @param compression
+     * @param quantization
+     * @param exec
+     */
+	public static final <T extends RealType<T>, Q extends NativeType<Q> & IntegerType<Q>> void saveQuantized(
+			final N5Writer n5Writer,
+			final String dataset,
+			final RandomAccessibleInterval<T> source,
+			final int[] blockSize,
+			final Compression compression,
+			final Quantization<Q> quantization,
+			final ExecutorService exec ) throws Exception
+	{
+		final double m = quantization.getMultiplier();
+		N5Utils.save( quantize( vectorAxisFirst( source ), quantization.getType(), m ), n5Writer, dataset, blockSize, compression, exec );
+		clearEncoding( n5Writer, dataset );
+		n5Writer.setAttribute( dataset, MULTIPLIER_ATTR, m );
+	}
+
+    /**
+     * Saves a quantized deformation field into a specified n5 dataset in
+     * parallel by block.  The field is stored in the smallest signed
+     * {@link IntegerType} that holds its value range at a multiplier that
+     * keeps the error below maxError, see
+     * {@link #planQuantization(RandomAccessibleInterval, double, int[], ExecutorService)}.
+     *
+     * @param n5Writer
+     * @param dataset
+     * @param source
+     * @param blockSize
+     * @param compression
+     * @param maxError
+     * @param exec
+     * @return the quantization that was used
+     */
+	public static final <T extends RealType<T>> Quantization<?> saveQuantized(
+			final N5Writer n5Writer,
+			final String dataset,
+			final RandomAccessibleInterval<T> source,
+			final int[] blockSize,
+			final Compression compression,
+			final double maxError,
+			final ExecutorService exec ) throws Exception
+	{
+		final Quantization<?> quantization = planQuantization( source, maxError, blockSize, exec );
+		saveQuantized( n5Writer, dataset, source, blockSize, compression, quantization, exec );
+		return quantization;
+	}
+
+    /**
+     * Plans the quantization of a deformation field.  The multiplier is the
+     * largest that keeps the error (L2) between quantized and original
+     * vectors below maxError, and the type is the smallest signed
+     * {@link IntegerType} (byte, short, int, long) in which the largest
+     * absolute quantized value does not overflow.  The value range is
+     * computed in parallel by block.
+     *
+     * @param source
+     * @param maxError
+     * @param blockSize
+     * @param exec
+     * @return the quantization
+     * @throws IllegalArgumentException if the range does not fit any type
+     */
+	public static final <T extends RealType<T>> Quantization<?> planQuantization(
+			final RandomAccessibleInterval<T> source,
+			final double maxError,
+			final int[] blockSize,
+			final ExecutorService exec ) throws InterruptedException, ExecutionException
+	{
+		final double m = quantizationMultiplier( source, maxError );
+		final double maxAbs = getMinMax( source, blockSize, exec )[ 1 ];
+		final double maxQuantized = Math.round( maxAbs / m );
+
+		if( maxQuantized <= Byte.MAX_VALUE )
+			return new Quantization<>( new ByteType(), m );
+		if( maxQuantized <= Short.MAX_VALUE )
+			return new Quantization<>( new ShortType(), m );
+		if( maxQuantized <= Integer.MAX_VALUE )
+			return new Quantization<>( new IntType(), m );
+		if( maxQuantized < Long.MAX_VALUE )
+			return new Quantization<>( new LongType(), m );
+
+		throw new IllegalArgumentException( "Range " + maxAbs + " does not fit any integer type at multiplier " + m + "." );
+	}
+
+    /**
+     * Saves a quantized deformation field into a specified n5 dataset in
+     * parallel by block, with one multiplier per block.
+     *
+     * A block is quantized with the multiplier that keeps the error (L2)
+     * between quantized and original vectors below maxError if its values
+     * fit the range of the outputType at that multiplier, otherwise with
+     * the smallest multiplier at which they fit.  Smooth regions therefore
+     * keep the error bound in a narrow type, and only blocks with large
+     * displacements are quantized coarser, i.e. with an error above
+     * maxError.  The outputType must be signed.
+     * The multipliers are stored in the {@link #MULTIPLIERS_ATTR} attribute
+     * as one value per block in flat grid order, {@link #openQuantized}
+     * applies them while cells are decoded.  The error bound that each
+     * block achieved is stored in the same order in the
+     * {@link #MAX_ERRORS_ATTR} attribute, and the largest of them is
+     * returned, so callers can detect blocks that exceed maxError.
      *
      * @param n5Writer
      * @param dataset
@@ -193,26 +1238,87 @@ public class N5DisplacementField
      * @param compression
      * @param outputType
      * @param maxError
+     * @param exec
+     * @return the largest error bound of all blocks, larger than maxError
+     *         if any block did not fit the outputType at maxError
      */
-	public static final <T extends RealType<T>, Q extends NativeType<Q> & IntegerType<Q>> void saveQuantized(
+	public static final <T extends RealType<T>, Q extends NativeType<Q> & IntegerType<Q>> double saveQuantizedPerBlock(
 			final N5Writer n5Writer,
 			final String dataset,
 			final RandomAccessibleInterval<T> source,
 			final int[] blockSize,
 			final Compression compression,
 			final Q outputType,
-            final double maxError ) throws Exception
+			final double maxError,
+			final ExecutorService exec ) throws Exception
+	{
+		final double minQuantized = outputType.getMinValue();
+		final double maxQuantized = outputType.getMaxValue();
+		if( minQuantized >= 0 )
+			throw new IllegalArgumentException( "Displacements cannot be quantized into unsigned " + outputType.getClass().getSimpleName() + "." );
+
+		final double errorMultiplier = quantizationMultiplier( source, maxError );
+		final double errorPerMultiplier = Math.sqrt( source.numDimensions() - 1 ) / 2;
+
+		final RandomAccessibleInterval< T > source_permuted = Views.zeroMin( vectorAxisFirst( source ) );
+		final long[] dimensions = Intervals.dimensionsAsLongArray( source_permuted );
+		final DatasetAttributes attributes = new DatasetAttributes( dimensions, blockSize, N5Utils.dataType( outputType ), compression );
+		n5Writer.createDataset( dataset, attributes );
+		clearEncoding( n5Writer, dataset );
+
+		final CellGrid grid = new CellGrid( dimensions, blockSize );
+		final long[] gridDimensions = grid.getGridDimensions();
+		final double[] multipliers = new double[ ( int ) Intervals.numElements( gridDimensions ) ];
+		final double[] maxErrors = new double[ multipliers.length ];
+
+		final ArrayList< Future< Void > > futures = new ArrayList<>();
+		for( final long[] gridPosition : N5Utils.gridPositions( new FinalInterval( dimensions ), blockSize ) )
+		{
+			futures.add( exec.submit( () -> {
+				final IntervalView< T > block = Views.interval( source_permuted, N5Utils.blockInterval( grid, gridPosition ) );
+				double blockMin = 0;
+				double blockMax = 0;
+				for( final T t : block )
+				{
+					final double v = t.getRealDouble();
+					blockMin = Math.min( blockMin, v );
+					blockMax = Math.max( blockMax, v );
+				}
+				final double m = Math.max( errorMultiplier, Math.max( blockMin / minQuantized, blockMax / maxQuantized ) );
+				final int blockIndex = ( int ) IntervalIndexer.positionToIndex( gridPosition, gridDimensions );
+				multipliers[ blockIndex ] = m;
+				maxErrors[ blockIndex ] = m == errorMultiplier ? maxError : m * errorPerMultiplier;
+
+				N5Utils.saveBlock( quantize( block, outputType, m ), n5Writer, dataset, attributes, gridPosition );
+				return null;
+			} ) );
+		}
+		for( final Future< Void > f : futures )
+			f.get();
+
+		n5Writer.setAttribute( dataset, MULTIPLIERS_ATTR, multipliers );
+		n5Writer.setAttribute( dataset, MAX_ERRORS_ATTR, maxErrors );
+
+		return Arrays.stream( maxErrors ).max().orElse( 0 );
+	}
+
+	private static final double quantizationMultiplier( final RandomAccessibleInterval< ? > source, final double maxError )
 	{
 		/* 
 		 * To keep the max vector error below maxError, 
 		 * the error per coordinate must be below m
 		 */
 		int nd = ( source.numDimensions() - 1 ); // vector field source has num dims + 1
-		double m = 2 * Math.sqrt( maxError * maxError / nd );
+		return 2 * Math.sqrt( maxError * maxError / nd );
+	}
 
-		RandomAccessibleInterval< T > source_permuted = vectorAxisFirst( source );
-		RandomAccessibleInterval< Q > source_quant = Converters.convert(
-				source_permuted, 
+	private static final <T extends RealType<T>, Q extends NativeType<Q> & IntegerType<Q>> RandomAccessibleInterval< Q > quantize(
+			final RandomAccessibleInterval< T > source,
+			final Q outputType,
+			final double m )
+	{
+		return Converters.convert(
+				source, 
 				new Converter<T, Q>()
 				{
 					@Override
@@ -222,9 +1328,6 @@ public class N5DisplacementField
 					}
 				}, 
 				outputType.copy());
-
-        N5Utils.save( source_quant, n5Writer, dataset, blockSize, compression);
-		n5Writer.setAttribute( dataset, MULTIPLIER_ATTR, m );
 	}
 
     /**
@@ -420,6 +1523,10 @@ public class N5DisplacementField
 			final T defaultType ) throws Exception
 	{
 		final DatasetAttributes attributes = n5.getDatasetAttributes(dataset);
+		final Boolean isHalf = n5.getAttribute( dataset, FLOAT16_ATTR, Boolean.class );
+		if( isHalf != null && isHalf )
+			return openHalf( n5, dataset, defaultType );
+
 		switch (attributes.getDataType()) {
 		case INT8:
 			return openQuantized( n5, dataset, (Q)new ByteType(), defaultType );
@@ -564,6 +1671,23 @@ public class N5DisplacementField
 			final T defaultType ) throws Exception
 	{
         RandomAccessibleInterval< Q > src = N5Utils.open( n5, dataset, defaultQuantizedType  );
+
+        // per block multipliers are applied while cells are decoded
+        final double[] multipliers = n5.getAttribute( dataset, MULTIPLIERS_ATTR, double[].class );
+        if( multipliers != null )
+        {
+        	final RandomAccessibleInterval< DoubleType > decoded = vectorAxisLast( openDequantized( n5, dataset, multipliers, src ) );
+        	return Converters.convert(
+        			decoded,
+        			new Converter<DoubleType, T>()
+        			{
+        				@Override
+        				public void convert(DoubleType input, T output) {
+        					output.setReal( input.get() );
+        				}
+        			},
+        			defaultType.copy());
+        }
         
         // get the factor going from quantized to original values
         Double mattr = n5.getAttribute( dataset, MULTIPLIER_ATTR, Double.TYPE );
@@ -588,6 +1712,88 @@ public class N5DisplacementField
         return src_converted;
 	}
 
+    /**
+     * Open a half precision deformation field saved with {@link #saveHalf}.
+     * The stored bits are decoded to {@link FloatType} while cells are
+     * loaded.
+     *
+     * @param n5
+     * @param dataset
+     * @param defaultType
+     * @return the deformation field with the vector stored in the last dimension
+     */
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	public static final <T extends RealType<T>> RandomAccessibleInterval< T > openHalf(
+			final N5Reader n5,
+			final String dataset,
+			final T defaultType ) throws Exception
+	{
+		final DatasetAttributes attributes = n5.getDatasetAttributes( dataset );
+		final int[] blockSize = attributes.getBlockSize();
+
+		final CellLoader< FloatType > loader = cell -> {
+			final long[] gridPosition = new long[ blockSize.length ];
+			for( int d = 0; d < blockSize.length; ++d )
+				gridPosition[ d ] = cell.min( d ) / blockSize[ d ];
+			final DataBlock< ? > block = n5.readBlock( dataset, attributes, gridPosition );
+			if( block == null )
+				return;
+			final short[] data = ( short[] ) block.getData();
+			int i = 0;
+			for( final FloatType t : cell )
+				t.set( fromHalf( data[ i++ ] & 0xffff ) );
+		};
+
+		final FloatType type = new FloatType();
+		final CellGrid grid = new CellGrid( attributes.getDimensions(), blockSize );
+		final Cache< Long, Cell< FloatArray > > cache = new SoftRefLoaderCache< Long, Cell< FloatArray > >()
+				.withLoader( LoadedCellCacheLoader.get( grid, loader, type, AccessFlags.setOf() ) );
+		final RandomAccessibleInterval< FloatType > decoded = vectorAxisLast( new CachedCellImg( grid, type, cache, ArrayDataAccessFactory.get( type, AccessFlags.setOf() ) ) );
+
+		if( defaultType instanceof FloatType )
+			return ( RandomAccessibleInterval< T > ) decoded;
+
+		return Converters.convert(
+				decoded,
+				new Converter<FloatType, T>()
+				{
+					@Override
+					public void convert(FloatType input, T output) {
+						output.setReal( input.get() );
+					}
+				},
+				defaultType.copy());
+	}
+
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	private static final <Q extends RealType<Q> & NativeType<Q>> RandomAccessibleInterval< DoubleType > openDequantized(
+			final N5Reader n5,
+			final String dataset,
+			final double[] multipliers,
+			final RandomAccessibleInterval< Q > src ) throws IOException
+	{
+		final DatasetAttributes attributes = n5.getDatasetAttributes( dataset );
+		final int[] blockSize = attributes.getBlockSize();
+		final CellGrid grid = new CellGrid( attributes.getDimensions(), blockSize );
+		final long[] gridDimensions = grid.getGridDimensions();
+
+		final CellLoader< DoubleType > loader = cell -> {
+			final long[] gridPosition = new long[ blockSize.length ];
+			for( int d = 0; d < blockSize.length; ++d )
+				gridPosition[ d ] = cell.min( d ) / blockSize[ d ];
+			final double m = multipliers[ ( int ) IntervalIndexer.positionToIndex( gridPosition, gridDimensions ) ];
+
+			final Cursor< Q > c = Views.flatIterable( Views.interval( src, cell ) ).cursor();
+			for( final DoubleType t : cell )
+				t.set( c.next().getRealDouble() * m );
+		};
+
+		final DoubleType type = new DoubleType();
+		final Cache< Long, Cell< DoubleArray > > cache = new SoftRefLoaderCache< Long, Cell< DoubleArray > >()
+				.withLoader( LoadedCellCacheLoader.get( grid, loader, type, AccessFlags.setOf() ) );
+		return new CachedCellImg( grid, type, cache, ArrayDataAccessFactory.get( type, AccessFlags.setOf() ) );
+	}
+
     /**
      * Returns a deformation field as a {@link RandomAccessibleInterval}
      * with the vector stored in the last dimension.
@@ -628,8 +1834,6 @@ public class N5DisplacementField
 	public static final < T extends RealType< T > > RandomAccessibleInterval< T > vectorAxisFirst( RandomAccessibleInterval< T > source ) throws Exception
 	{
 		final int n = source.numDimensions();
-		
-		System.out.println("source2perm: " + Util.printInterval(source));
 
 		if ( source.dimension( 0 ) == (n - 1) )
 			return source;
@@ -686,7 +1890,7 @@ public class N5DisplacementField
 	public static <T extends RealType<T>> double[] getMinMax( IterableInterval<T> img )
 	{
 		double min = Double.MAX_VALUE;
-		double max = Double.MIN_VALUE;
+		double max = 0;
 		Cursor<T> c = img.cursor();
 		while( c.hasNext() )
 		{
@@ -700,4 +1904,177 @@ public class N5DisplacementField
 		return new double[]{ min, max };
 	}
 
+    /**
+     * Returns the minimum and maximum absolute values of a
+     * {@link RandomAccessibleInterval}, reduced in parallel over blocks of
+     * the given size.
+     *
+     * @param img the interval
+     * @param blockSize
+     * @param exec
+     * @return the min and max absolute values stored in a double array
+     */
+	public static <T extends RealType<T>> double[] getMinMax(
+			final RandomAccessibleInterval<T> img,
+			final int[] blockSize,
+			final ExecutorService exec ) throws InterruptedException, ExecutionException
+	{
+		final RandomAccessibleInterval< T > zeroMinImg = Views.zeroMin( img );
+		final long[] dimensions = Intervals.dimensionsAsLongArray( zeroMinImg );
+		final CellGrid grid = new CellGrid( dimensions, blockSize );
+
+		final ArrayList< Future< double[] > > futures = new ArrayList<>();
+		for( final long[] gridPosition : N5Utils.gridPositions( new FinalInterval( dimensions ), blockSize ) )
+		{
+			final Interval interval = N5Utils.blockInterval( grid, gridPosition );
+			futures.add( exec.submit( () -> getMinMax( Views.interval( zeroMinImg, interval ) ) ) );
+		}
+
+		double min = Double.MAX_VALUE;
+		double max = 0;
+		for( final Future< double[] > f : futures )
+		{
+			final double[] blockMinMax = f.get();
+			min = Math.min( min, blockMinMax[ 0 ] );
+			max = Math.max( max, blockMinMax[ 1 ] );
+		}
+		return new double[]{ min, max };
+	}
+
+    /**
+     * Transforms a batch of points in parallel.  Points are packed into
+     * arrays of length numPoints * n with the coordinates of each point
+     * stored consecutively.  The points are sorted by the cell of size
+     * cellSize in source space that contains them, typically the physical
+     * extent of a block of the deformation field, and contiguous ranges of
+     * this order are transformed by per-task copies of the transform, so
+     * that each copy touches few blocks.  Results are written in the
+     * original order.  source and target may be the same array if the
+     * transform has as many source as target dimensions.
+     *
+     * @param transform
+     * @param source packed source coordinates
+     * @param target packed target coordinates
+     * @param cellSize size of the cells by which points are sorted, null for no sorting
+     * @param exec
+     * @param numTasks
+     */
+	public static void apply(
+			final RealTransform transform,
+			final double[] source,
+			final double[] target,
+			final double[] cellSize,
+			final ExecutorService exec,
+			final int numTasks ) throws InterruptedException, ExecutionException
+	{
+		final int n = transform.numSourceDimensions();
+		final int m = transform.numTargetDimensions();
+		if( source == target && n != m )
+			throw new IllegalArgumentException( "source and target can only be the same array if the transform preserves the number of dimensions." );
+
+		final int numPoints = source.length / n;
+		final int[] order = sortByCell( source, n, numPoints, cellSize );
+
+		/* with source == target, results are written only after all points were read */
+		final double[] result = source == target ? new double[ target.length ] : target;
+
+		final ArrayList< Future< Void > > futures = new ArrayList<>();
+		for( int task = 0; task < numTasks; ++task )
+		{
+			final int from = ( int )( ( long )task * numPoints / numTasks );
+			final int to = ( int )( ( long )( task + 1 ) * numPoints / numTasks );
+			final RealTransform copy = transform.copy();
+			futures.add( exec.submit( () -> {
+				final double[] p = new double[ n ];
+				final double[] q = new double[ m ];
+				for( int i = from; i < to; ++i )
+				{
+					final int index = order == null ? i : order[ i ];
+					System.arraycopy( source, index * n, p, 0, n );
+					copy.apply( p, q );
+					System.arraycopy( q, 0, result, index * m, m );
+				}
+				return null;
+			} ) );
+		}
+		for( final Future< Void > f : futures )
+			f.get();
+
+		if( result != target )
+			System.arraycopy( result, 0, target, 0, result.length );
+	}
+
+	/**
+	 * Returns the indices of packed points sorted by the flat index of the
+	 * cell containing them, or null if no cell size is given or the cell
+	 * grid is too large to be indexed.
+	 */
+	private static int[] sortByCell( final double[] source, final int n, final int numPoints, final double[] cellSize )
+	{
+		if( cellSize == null )
+			return null;
+
+		final long[] min = new long[ n ];
+		final long[] max = new long[ n ];
+		Arrays.fill( min, Long.MAX_VALUE );
+		Arrays.fill( max, Long.MIN_VALUE );
+		for( int i = 0, j = 0; i < numPoints; ++i )
+			for( int d = 0; d < n; ++d, ++j )
+			{
+				final long cell = ( long )Math.floor( source[ j ] / cellSize[ d ] );
+				min[ d ] = Math.min( min[ d ], cell );
+				max[ d ] = Math.max( max[ d ], cell );
+			}
+
+		long numCells = 1;
+		for( int d = 0; d < n && numCells < Integer.MAX_VALUE; ++d )
+			numCells *= max[ d ] - min[ d ] + 1;
+		if( numPoints == 0 || numCells >= Integer.MAX_VALUE )
+			return null;
+
+		/* cell index in the high, point index in the low 32 bits */
+		final long[] keys = new long[ numPoints ];
+		for( int i = 0; i < numPoints; ++i )
+		{
+			long cell = 0;
+			for( int d = n - 1; d >= 0; --d )
+				cell = cell * ( max[ d ] - min[ d ] + 1 ) + ( ( long )Math.floor( source[ i * n + d ] / cellSize[ d ] ) - min[ d ] );
+			keys[ i ] = cell << 32 | i;
+		}
+		Arrays.parallelSort( keys );
+
+		final int[] order = new int[ numPoints ];
+		for( int i = 0; i < numPoints; ++i )
+			order[ i ] = ( int )keys[ i ];
+		return order;
+	}
+
+	/**
+	 * The {@link IntegerType} and multiplier with which a deformation field
+	 * is quantized, see
+	 * {@link N5DisplacementField#planQuantization(RandomAccessibleInterval, double, int[], ExecutorService)}.
+	 */
+	public static final class Quantization< Q extends NativeType< Q > & IntegerType< Q > >
+	{
+		private final Q type;
+
+		private final double multiplier;
+
+		public Quantization( final Q type, final double multiplier )
+		{
+			this.type = type;
+			this.multiplier = multiplier;
+		}
+
+		public Q getType()
+		{
+			return type;
+		}
+
+		public double getMultiplier()
+		{
+			return multiplier;
+		}
+	}
+
 }
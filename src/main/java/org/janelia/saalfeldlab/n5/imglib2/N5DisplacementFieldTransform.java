@@ -0,0 +1,384 @@
+/**
+ * Copyright (c) 2017-2018, Stephan Saalfeld, Philipp Hanslovsky, Igor Pisarev
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5.imglib2;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5Reader;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealLocalizable;
+import net.imglib2.RealPositionable;
+import net.imglib2.cache.Cache;
+import net.imglib2.cache.ref.SoftRefLoaderCache;
+import net.imglib2.realtransform.AffineGet;
+import net.imglib2.realtransform.RealTransform;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * A {@link RealTransform} for displacement fields stored with
+ * {@link N5DisplacementField}, equivalent to
+ * {@link N5DisplacementField#open(N5Reader, String, boolean)} with border
+ * extension and n-linear interpolation.
+ *
+ * The field is copied into tiles of primitive arrays with the vector
+ * components interleaved and a one pixel halo, so that all components of
+ * a displacement are interpolated from one tile in one pass.  Tiles are
+ * shared through a soft reference cache, and every copy of the transform
+ * remembers the tile it used last.  The pixel spacing and the affine are
+ * applied directly on coordinate arrays.  Instances are not thread safe,
+ * use {@link #copy()} for each thread.
+ */
+public class N5DisplacementFieldTransform implements RealTransform {
+
+	private final int n;
+
+	private final long[] dimensions;
+
+	private final int[] tileSize;
+
+	private final long[] gridDimensions;
+
+	/* pixel strides in a tile including its halo */
+	private final int[] strides;
+
+	/* row packed affine, null for identity */
+	private final double[] affine;
+
+	private final double[] inverseSpacing;
+
+	private final boolean inverse;
+
+	private final Cache<Long, double[]> tiles;
+
+	private final double[] position;
+
+	private final double[] displacement;
+
+	private final double[] weights;
+
+	private final long[] tilePosition;
+
+	/* scratch coordinates for the float[] and RealLocalizable variants of apply */
+	private final double[] doubleSource;
+
+	private final double[] doubleTarget;
+
+	private long currentTileIndex = -1;
+
+	private double[] currentTile;
+
+	/**
+	 * @param field the displacement field with the vector in the first or last dimension
+	 * @param spacing the pixel spacing of the field, null for unit spacing
+	 * @param affine the affine stored with the field, null for none
+	 * @param inverse if true, apply the affine before the field, otherwise after the field
+	 * @param tileSize spatial size of the cached tiles
+	 * @throws Exception if the vector dimension cannot be identified
+	 */
+	public <T extends RealType<T>> N5DisplacementFieldTransform(
+			final RandomAccessibleInterval<T> field,
+			final double[] spacing,
+			final AffineGet affine,
+			final boolean inverse,
+			final int[] tileSize) throws Exception {
+
+		final RandomAccessibleInterval<T> vectorField = Views.zeroMin(N5DisplacementField.vectorAxisLast(field));
+		n = vectorField.numDimensions() - 1;
+		dimensions = new long[n];
+		gridDimensions = new long[n];
+		strides = new int[n];
+		this.tileSize = tileSize.clone();
+		int stride = 1;
+		for (int d = 0; d < n; ++d) {
+			dimensions[d] = vectorField.dimension(d);
+			gridDimensions[d] = (dimensions[d] + tileSize[d] - 1) / tileSize[d];
+			strides[d] = stride;
+			stride *= tileSize[d] + 1;
+		}
+
+		inverseSpacing = new double[n];
+		for (int d = 0; d < n; ++d)
+			inverseSpacing[d] = spacing == null ? 1.0 : 1.0 / spacing[d];
+
+		if (affine == null)
+			this.affine = null;
+		else {
+			this.affine = new double[n * (n + 1)];
+			for (int r = 0, i = 0; r < n; ++r)
+				for (int c = 0; c <= n; ++c, ++i)
+					this.affine[i] = affine.get(r, c);
+		}
+
+		this.inverse = inverse;
+		tiles = new SoftRefLoaderCache<Long, double[]>().withLoader(key -> loadTile(vectorField, key));
+
+		position = new double[n];
+		displacement = new double[n];
+		weights = new double[n];
+		tilePosition = new long[n];
+		doubleSource = new double[n];
+		doubleTarget = new double[n];
+	}
+
+	private N5DisplacementFieldTransform(final N5DisplacementFieldTransform transform) {
+
+		n = transform.n;
+		dimensions = transform.dimensions;
+		tileSize = transform.tileSize;
+		gridDimensions = transform.gridDimensions;
+		strides = transform.strides;
+		affine = transform.affine;
+		inverseSpacing = transform.inverseSpacing;
+		inverse = transform.inverse;
+		tiles = transform.tiles;
+
+		position = new double[n];
+		displacement = new double[n];
+		weights = new double[n];
+		tilePosition = new long[n];
+		doubleSource = new double[n];
+		doubleTarget = new double[n];
+	}
+
+	/**
+	 * Open the forward or inverse transform from an N5 dataset written with
+	 * {@link N5DisplacementField}.  Tiles are the spatial blocks of the
+	 * dataset.
+	 *
+	 * @param n5
+	 * @param dataset
+	 * @param inverse
+	 * @return
+	 * @throws Exception
+	 */
+	public static N5DisplacementFieldTransform open(
+			final N5Reader n5,
+			final String dataset,
+			final boolean inverse) throws Exception {
+
+		final RandomAccessibleInterval<DoubleType> field = N5DisplacementField.openField(n5, dataset, new DoubleType());
+		final double[] spacing = n5.getAttribute(dataset, N5DisplacementField.SPACING_ATTR, double[].class);
+		final AffineGet affine = N5DisplacementField.openAffine(n5, dataset);
+
+		return new N5DisplacementFieldTransform(field, spacing, affine, inverse, tileSize(n5.getDatasetAttributes(dataset)));
+	}
+
+	/**
+	 * Spatial block size of a stored displacement field with the vector in
+	 * the first or last dimension.
+	 *
+	 * @param attributes
+	 * @return
+	 */
+	static int[] tileSize(final DatasetAttributes attributes) {
+
+		final long[] storedDimensions = attributes.getDimensions();
+		final int[] storedBlockSize = attributes.getBlockSize();
+		final int n = storedDimensions.length - 1;
+		final int[] tileSize = new int[n];
+		/* same precedence as N5DisplacementField.vectorAxisLast */
+		final int first = storedDimensions[n] != n && storedDimensions[0] == n ? 1 : 0;
+		for (int d = 0; d < n; ++d)
+			tileSize[d] = storedBlockSize[d + first];
+		return tileSize;
+	}
+
+	private <T extends RealType<T>> double[] loadTile(final RandomAccessibleInterval<T> vectorField, final long index) {
+
+		final long[] min = new long[n + 1];
+		final long[] max = new long[n + 1];
+		long i = index;
+		for (int d = 0; d < n; ++d) {
+			min[d] = (i % gridDimensions[d]) * tileSize[d];
+			max[d] = min[d] + tileSize[d];
+			i /= gridDimensions[d];
+		}
+		max[n] = n - 1;
+
+		final double[] tile = new double[strides[n - 1] * (tileSize[n - 1] + 1) * n];
+		final Cursor<T> cursor = Views.interval(Views.extendBorder(vectorField), min, max).localizingCursor();
+		while (cursor.hasNext()) {
+			final double value = cursor.next().getRealDouble();
+			int offset = 0;
+			for (int d = 0; d < n; ++d)
+				offset += (cursor.getLongPosition(d) - min[d]) * strides[d];
+			tile[offset * n + cursor.getIntPosition(n)] = value;
+		}
+		return tile;
+	}
+
+	/**
+	 * Interpolate the displacement at {@link #position} in pixel coordinates
+	 * into {@link #displacement}.
+	 */
+	private void interpolate() {
+
+		long tileIndex = 0;
+		int offset = 0;
+		for (int d = n - 1; d >= 0; --d) {
+			final long max = dimensions[d] - 1;
+			final double p = Math.max(0, Math.min(max, position[d]));
+			final long f = Math.min((long)p, Math.max(0, max - 1));
+			weights[d] = p - f;
+			tilePosition[d] = f / tileSize[d];
+			tileIndex = tileIndex * gridDimensions[d] + tilePosition[d];
+			offset += (f - tilePosition[d] * tileSize[d]) * strides[d];
+		}
+
+		if (tileIndex != currentTileIndex) {
+			try {
+				currentTile = tiles.get(tileIndex);
+			} catch (final ExecutionException e) {
+				throw new RuntimeException(e);
+			}
+			currentTileIndex = tileIndex;
+		}
+
+		for (int c = 0; c < n; ++c)
+			displacement[c] = 0;
+
+		for (int corner = 0; corner < 1 << n; ++corner) {
+			double weight = 1;
+			int cornerOffset = offset;
+			for (int d = 0; d < n; ++d) {
+				if ((corner & 1 << d) == 0)
+					weight *= 1 - weights[d];
+				else {
+					weight *= weights[d];
+					cornerOffset += strides[d];
+				}
+			}
+			if (weight == 0)
+				continue;
+			final int i = cornerOffset * n;
+			for (int c = 0; c < n; ++c)
+				displacement[c] += weight * currentTile[i + c];
+		}
+	}
+
+	private void applyAffine(final double[] source, final double[] target) {
+
+		if (affine == null) {
+			System.arraycopy(source, 0, target, 0, n);
+			return;
+		}
+		for (int r = 0, i = 0; r < n; ++r) {
+			double t = 0;
+			for (int c = 0; c < n; ++c, ++i)
+				t += affine[i] * source[c];
+			position[r] = t + affine[i++];
+		}
+		System.arraycopy(position, 0, target, 0, n);
+	}
+
+	@Override
+	public void apply(final double[] source, final double[] target) {
+
+		if (inverse) {
+			applyAffine(source, target);
+			for (int d = 0; d < n; ++d)
+				position[d] = target[d] * inverseSpacing[d];
+			interpolate();
+			for (int d = 0; d < n; ++d)
+				target[d] += displacement[d];
+		} else {
+			for (int d = 0; d < n; ++d)
+				position[d] = source[d] * inverseSpacing[d];
+			interpolate();
+			for (int d = 0; d < n; ++d)
+				target[d] = source[d] + displacement[d];
+			applyAffine(target, target);
+		}
+	}
+
+	/**
+	 * Transform a batch of packed points in parallel, see
+	 * {@link N5DisplacementField#apply(RealTransform, double[], double[], double[], ExecutorService, int)}.
+	 * Points are sorted by the tiles of the field in source space.
+	 *
+	 * @param source packed source coordinates
+	 * @param target packed target coordinates
+	 * @param exec
+	 * @param numTasks
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public void apply(
+			final double[] source,
+			final double[] target,
+			final ExecutorService exec,
+			final int numTasks) throws InterruptedException, ExecutionException {
+
+		final double[] cellSize = new double[n];
+		for (int d = 0; d < n; ++d)
+			cellSize[d] = tileSize[d] / inverseSpacing[d];
+		N5DisplacementField.apply(this, source, target, cellSize, exec, numTasks);
+	}
+
+	@Override
+	public void apply(final float[] source, final float[] target) {
+
+		for (int d = 0; d < n; ++d)
+			doubleSource[d] = source[d];
+		apply(doubleSource, doubleTarget);
+		for (int d = 0; d < n; ++d)
+			target[d] = (float)doubleTarget[d];
+	}
+
+	@Override
+	public void apply(final RealLocalizable source, final RealPositionable target) {
+
+		source.localize(doubleSource);
+		apply(doubleSource, doubleTarget);
+		target.setPosition(doubleTarget);
+	}
+
+	@Override
+	public int numSourceDimensions() {
+
+		return n;
+	}
+
+	@Override
+	public int numTargetDimensions() {
+
+		return n;
+	}
+
+	@Override
+	public N5DisplacementFieldTransform copy() {
+
+		return new N5DisplacementFieldTransform(this);
+	}
+}
@@ -0,0 +1,592 @@
+/**
+ * Copyright (c) 2017-2018, Stephan Saalfeld, Philipp Hanslovsky, Igor Pisarev
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5.imglib2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.N5Writer;
+
+import gnu.trove.map.hash.TLongLongHashMap;
+import gnu.trove.set.hash.TLongHashSet;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.list.ListImg;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.label.Label;
+import net.imglib2.type.label.LabelMultisetEntry;
+import net.imglib2.type.label.LabelMultisetEntryList;
+import net.imglib2.type.label.LabelMultisetType;
+import net.imglib2.type.label.LabelMultisetType.Entry;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.IntervalIndexer;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * Static utility methods to (re-)generate the scale levels of N5 mipmap
+ * (multi-scale) groups as they are opened by
+ * {@link N5Utils#openMipmaps(N5Reader, String, boolean)}, i.e. groups with
+ * datasets s0, s1, ..., sN whose optional {@value #DOWNSAMPLING_FACTORS_KEY}
+ * attribute specifies the absolute downsampling factors relative to s0.
+ *
+ * Primitive datasets are downsampled by averaging, {@link LabelMultisetType}
+ * datasets by merging the label multisets of each downsampling window.
+ */
+public class N5Downsampling {
+
+	public static final String DOWNSAMPLING_FACTORS_KEY = "downsamplingFactors";
+
+	private N5Downsampling() {}
+
+	/**
+	 * Returns the absolute downsampling factors of scale level s of a mipmap
+	 * group. Falls back to 2<sup>s</sup> in all dimensions if the dataset
+	 * does not specify {@value #DOWNSAMPLING_FACTORS_KEY}, consistent with
+	 * {@link N5Utils#openMipmapsWithHandler}.
+	 *
+	 * @param n5
+	 * @param group
+	 * @param s
+	 * @return
+	 * @throws IOException
+	 */
+	public static long[] getDownsamplingFactors(
+			final N5Reader n5,
+			final String group,
+			final int s) throws IOException {
+
+		final String datasetName = group + "/s" + s;
+		final long[] downsamplingFactors = n5.getAttribute(datasetName, DOWNSAMPLING_FACTORS_KEY, long[].class);
+		if (downsamplingFactors != null)
+			return downsamplingFactors;
+
+		final long[] factors = new long[n5.getDatasetAttributes(datasetName).getDimensions().length];
+		Arrays.fill(factors, 1L << s);
+		return factors;
+	}
+
+	/**
+	 * Refresh the scale levels s1, ..., sN of a mipmap group after an
+	 * interval of s0 was modified, e.g. with
+	 * {@link N5Utils#saveBlock(RandomAccessibleInterval, N5Writer, String, long[], ExecutorService)}.
+	 *
+	 * @param n5
+	 * @param group
+	 * @param modifiedInterval the modified interval in s0 pixel coordinates
+	 * @param exec
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public static void updateMipmaps(
+			final N5Writer n5,
+			final String group,
+			final Interval modifiedInterval,
+			final ExecutorService exec) throws IOException, InterruptedException, ExecutionException {
+
+		final DatasetAttributes attributes = n5.getDatasetAttributes(group + "/s0");
+		final FinalInterval datasetInterval = new FinalInterval(attributes.getDimensions());
+		updateMipmaps(
+				n5,
+				group,
+				N5Utils.gridPositions(Intervals.intersect(datasetInterval, modifiedInterval), attributes.getBlockSize()),
+				exec);
+	}
+
+	/**
+	 * Refresh the scale levels s1, ..., sN of a mipmap group after a set of
+	 * {@link org.janelia.saalfeldlab.n5.DataBlock DataBlocks} of s0 was
+	 * modified. Only the {@link org.janelia.saalfeldlab.n5.DataBlock DataBlocks}
+	 * that are affected by the modification are recomputed at each coarser
+	 * scale level, the cost is therefore proportional to the size of the edit
+	 * and not to the size of the dataset.
+	 *
+	 * Works for primitive and {@link LabelMultisetType} groups.  Scale levels
+	 * must be integer multiples of their predecessor.
+	 *
+	 * @param n5
+	 * @param group
+	 * @param modifiedGridPositions grid positions of the modified s0 blocks
+	 * @param exec
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public static void updateMipmaps(
+			final N5Writer n5,
+			final String group,
+			final Iterable<long[]> modifiedGridPositions,
+			final ExecutorService exec) throws IOException, InterruptedException, ExecutionException {
+
+		final int numScales = N5Utils.numScaleLevels(n5, group);
+
+		String sourceDataset = group + "/s0";
+		DatasetAttributes sourceAttributes = n5.getDatasetAttributes(sourceDataset);
+		long[] sourceFactors = getDownsamplingFactors(n5, group, 0);
+		List<long[]> sourceGridPositions = new ArrayList<>();
+		modifiedGridPositions.forEach(sourceGridPositions::add);
+
+		for (int s = 1; s < numScales && !sourceGridPositions.isEmpty(); ++s) {
+
+			final String targetDataset = group + "/s" + s;
+			final DatasetAttributes targetAttributes = n5.getDatasetAttributes(targetDataset);
+			final long[] targetFactors = getDownsamplingFactors(n5, group, s);
+			final long[] relativeFactors = relativeFactors(sourceFactors, targetFactors);
+
+			final List<long[]> targetGridPositions = affectedGridPositions(
+					sourceGridPositions,
+					sourceAttributes,
+					targetAttributes,
+					relativeFactors);
+
+			downsampleBlocks(n5, sourceDataset, targetDataset, relativeFactors, targetGridPositions, 0, exec);
+
+			sourceDataset = targetDataset;
+			sourceAttributes = targetAttributes;
+			sourceFactors = targetFactors;
+			sourceGridPositions = targetGridPositions;
+		}
+	}
+
+	/**
+	 * Generate the scale levels s1, ..., sN of a mipmap group from its
+	 * existing s0 dataset, multi-threaded.  Each scale level is created with
+	 * the block size and compression of s0 and the given absolute
+	 * {@value #DOWNSAMPLING_FACTORS_KEY}, such that
+	 * {@link N5Utils#openMipmapsWithHandler} and
+	 * {@link N5Utils#openMipmaps(N5Reader, String, boolean)} pick it up.
+	 * Existing scale levels are overwritten.
+	 *
+	 * Works for primitive and {@link LabelMultisetType} groups.  The label
+	 * multisets of each downsampling window are merged, and optionally
+	 * capped to the maxNumEntries entries with the highest counts to bound
+	 * the size of coarse scale levels.
+	 *
+	 * @param n5
+	 * @param group
+	 * @param downsamplingFactors absolute downsampling factors of s1, ..., sN
+	 *            relative to s0, each an integer multiple of its predecessor
+	 * @param maxNumEntries maximum number of entries per downsampled
+	 *            {@link LabelMultisetType}, ignored for primitive datasets,
+	 *            unbounded if {@code <= 0}
+	 * @param exec
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public static void downsampleMipmaps(
+			final N5Writer n5,
+			final String group,
+			final long[][] downsamplingFactors,
+			final int maxNumEntries,
+			final ExecutorService exec) throws IOException, InterruptedException, ExecutionException {
+
+		final String s0Dataset = group + "/s0";
+		final DatasetAttributes s0Attributes = n5.getDatasetAttributes(s0Dataset);
+		if (s0Attributes == null)
+			throw new IOException("Dataset " + s0Dataset + " does not exist.");
+
+		final boolean isLabelMultiset = N5LabelMultisets.isLabelMultisetType(n5, s0Dataset);
+		final int[] blockSize = s0Attributes.getBlockSize();
+
+		String sourceDataset = s0Dataset;
+		long[] sourceDimensions = s0Attributes.getDimensions();
+		long[] sourceFactors = getDownsamplingFactors(n5, group, 0);
+
+		for (int s = 1; s <= downsamplingFactors.length; ++s) {
+
+			final String targetDataset = group + "/s" + s;
+			final long[] targetFactors = downsamplingFactors[s - 1];
+			final long[] relativeFactors = relativeFactors(sourceFactors, targetFactors);
+
+			final long[] targetDimensions = new long[sourceDimensions.length];
+			for (int d = 0; d < targetDimensions.length; ++d)
+				targetDimensions[d] = (sourceDimensions[d] + relativeFactors[d] - 1) / relativeFactors[d];
+			final DatasetAttributes targetAttributes = new DatasetAttributes(
+					targetDimensions,
+					blockSize,
+					s0Attributes.getDataType(),
+					s0Attributes.getCompression());
+
+			n5.createDataset(targetDataset, targetAttributes);
+			n5.setAttribute(targetDataset, DOWNSAMPLING_FACTORS_KEY, targetFactors);
+			if (isLabelMultiset) {
+				n5.setAttribute(targetDataset, N5LabelMultisets.LABEL_MULTISETTYPE_KEY, true);
+				LabelBlockIndex.reset(n5, targetDataset, targetAttributes);
+			}
+
+			downsampleBlocks(
+					n5,
+					sourceDataset,
+					targetDataset,
+					relativeFactors,
+					N5Utils.gridPositions(new FinalInterval(targetDimensions), blockSize),
+					maxNumEntries,
+					exec);
+
+			sourceDataset = targetDataset;
+			sourceDimensions = targetDimensions;
+			sourceFactors = targetFactors;
+		}
+	}
+
+	/**
+	 * Recompute a set of {@link org.janelia.saalfeldlab.n5.DataBlock DataBlocks}
+	 * of an existing target dataset by downsampling an existing source dataset,
+	 * multi-threaded.
+	 *
+	 * @param n5
+	 * @param sourceDataset
+	 * @param targetDataset
+	 * @param factors downsampling factors from source to target
+	 * @param targetGridPositions
+	 * @param maxNumEntries maximum number of entries per downsampled
+	 *            {@link LabelMultisetType}, ignored for primitive datasets,
+	 *            unbounded if {@code <= 0}
+	 * @param exec
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public static void downsampleBlocks(
+			final N5Writer n5,
+			final String sourceDataset,
+			final String targetDataset,
+			final long[] factors,
+			final Iterable<long[]> targetGridPositions,
+			final int maxNumEntries,
+			final ExecutorService exec) throws IOException, InterruptedException, ExecutionException {
+
+		final DatasetAttributes targetAttributes = n5.getDatasetAttributes(targetDataset);
+		if (targetAttributes == null)
+			throw new IOException("Dataset " + targetDataset + " does not exist.");
+
+		if (N5LabelMultisets.isLabelMultisetType(n5, sourceDataset)) {
+			if (!N5LabelMultisets.isLabelMultisetType(n5, targetDataset))
+				throw new IOException(targetDataset + " is not a label multiset dataset.");
+			final RandomAccessibleInterval<LabelMultisetType> source = N5LabelMultisets.openLabelMultiset(n5, sourceDataset);
+			downsampleLabelMultisetBlocks(source, n5, targetDataset, targetAttributes, factors, targetGridPositions, maxNumEntries, exec);
+		} else
+			downsampleRealBlocks(n5, sourceDataset, targetDataset, targetAttributes, factors, targetGridPositions, exec);
+	}
+
+	private static <S extends NativeType<S> & RealType<S>, T extends NativeType<T> & RealType<T>> void downsampleRealBlocks(
+			final N5Writer n5,
+			final String sourceDataset,
+			final String targetDataset,
+			final DatasetAttributes targetAttributes,
+			final long[] factors,
+			final Iterable<long[]> targetGridPositions,
+			final ExecutorService exec) throws IOException, InterruptedException, ExecutionException {
+
+		final RandomAccessibleInterval<S> source = N5Utils.open(n5, sourceDataset);
+		final T type = N5Utils.type(targetAttributes.getDataType());
+		final CellGrid targetGrid = new CellGrid(targetAttributes.getDimensions(), targetAttributes.getBlockSize());
+
+		final ArrayList<Future<Void>> futures = new ArrayList<>();
+		for (final long[] gridPosition : targetGridPositions) {
+			futures.add(
+					exec.submit(
+							() -> {
+
+								final Interval targetInterval = N5Utils.blockInterval(targetGrid, gridPosition);
+								final ArrayImg<T, ?> targetBlock = new ArrayImgFactory<>(type).create(Intervals.dimensionsAsLongArray(targetInterval));
+								average(
+										source,
+										source,
+										Views.translate(targetBlock, Intervals.minAsLongArray(targetInterval)),
+										factors);
+								N5Utils.saveBlock(targetBlock, n5, targetDataset, targetAttributes, gridPosition);
+								return null;
+							}));
+		}
+		for (final Future<Void> f : futures)
+			f.get();
+	}
+
+	private static void downsampleLabelMultisetBlocks(
+			final RandomAccessibleInterval<LabelMultisetType> source,
+			final N5Writer n5,
+			final String targetDataset,
+			final DatasetAttributes targetAttributes,
+			final long[] factors,
+			final Iterable<long[]> targetGridPositions,
+			final int maxNumEntries,
+			final ExecutorService exec) throws InterruptedException, ExecutionException {
+
+		final CellGrid targetGrid = new CellGrid(targetAttributes.getDimensions(), targetAttributes.getBlockSize());
+
+		final ArrayList<Future<Void>> futures = new ArrayList<>();
+		for (final long[] gridPosition : targetGridPositions) {
+			futures.add(
+					exec.submit(
+							() -> {
+
+								final Interval targetInterval = N5Utils.blockInterval(targetGrid, gridPosition);
+								final RandomAccessibleInterval<LabelMultisetType> targetBlock = downsampleLabelMultisets(
+										source,
+										source,
+										targetInterval,
+										factors,
+										maxNumEntries);
+								N5LabelMultisets.saveLabelMultisetBlock(targetBlock, n5, targetDataset, targetAttributes, gridPosition);
+								return null;
+							}));
+		}
+		for (final Future<Void> f : futures)
+			f.get();
+	}
+
+	/**
+	 * Downsample a source into a target by averaging all source pixels within
+	 * each downsampling window. Windows are cropped at the max of the source
+	 * interval. The source interval is assumed to have min 0.
+	 *
+	 * @param source
+	 * @param sourceInterval
+	 * @param target
+	 * @param factors
+	 */
+	public static <S extends RealType<?>, T extends RealType<?>> void average(
+			final RandomAccessible<S> source,
+			final Interval sourceInterval,
+			final RandomAccessibleInterval<T> target,
+			final long[] factors) {
+
+		final int n = target.numDimensions();
+		final long[] windowMin = new long[n];
+		final long[] windowMax = new long[n];
+		final long[] position = new long[n];
+
+		final long[] targetPosition = new long[n];
+
+		final RandomAccess<S> sourceAccess = source.randomAccess();
+		final Cursor<T> targetCursor = Views.flatIterable(target).localizingCursor();
+		while (targetCursor.hasNext()) {
+			final T t = targetCursor.next();
+			targetCursor.localize(targetPosition);
+			setWindow(targetPosition, sourceInterval, factors, windowMin, windowMax);
+			System.arraycopy(windowMin, 0, position, 0, n);
+			sourceAccess.setPosition(windowMin);
+
+			double sum = 0;
+			long count = 0;
+			for (int d = 0; d < n;) {
+				sum += sourceAccess.get().getRealDouble();
+				++count;
+				for (d = 0; d < n; ++d) {
+					if (position[d] < windowMax[d]) {
+						++position[d];
+						sourceAccess.fwd(d);
+						break;
+					} else {
+						sourceAccess.move(windowMin[d] - position[d], d);
+						position[d] = windowMin[d];
+					}
+				}
+			}
+			t.setReal(sum / count);
+		}
+	}
+
+	/**
+	 * Downsample a {@link LabelMultisetType} source by merging the label
+	 * multisets of all source pixels within each downsampling window.
+	 * Windows are cropped at the max of the source interval. The source
+	 * interval is assumed to have min 0.
+	 *
+	 * @param source
+	 * @param sourceInterval
+	 * @param targetInterval
+	 * @param factors
+	 * @param maxNumEntries if {@code > 0}, keep only the maxNumEntries
+	 *            entries with the largest counts per target pixel
+	 * @return the downsampled target interval (with min 0)
+	 */
+	public static RandomAccessibleInterval<LabelMultisetType> downsampleLabelMultisets(
+			final RandomAccessible<LabelMultisetType> source,
+			final Interval sourceInterval,
+			final Interval targetInterval,
+			final long[] factors,
+			final int maxNumEntries) {
+
+		final int n = targetInterval.numDimensions();
+		final long[] windowMin = new long[n];
+		final long[] windowMax = new long[n];
+		final long[] position = new long[n];
+
+		final ArrayList<LabelMultisetType> targetTypes = new ArrayList<>((int)Intervals.numElements(targetInterval));
+		final TLongLongHashMap counts = new TLongLongHashMap();
+		final LabelMultisetEntry entry = new LabelMultisetEntry(Label.INVALID, 1);
+
+		final long[] targetMin = Intervals.minAsLongArray(targetInterval);
+		final long[] targetMax = Intervals.maxAsLongArray(targetInterval);
+		final long[] targetPosition = targetMin.clone();
+
+		final RandomAccess<LabelMultisetType> sourceAccess = source.randomAccess();
+		for (int e = 0; e < n;) {
+			setWindow(targetPosition, sourceInterval, factors, windowMin, windowMax);
+			System.arraycopy(windowMin, 0, position, 0, n);
+			sourceAccess.setPosition(windowMin);
+
+			counts.clear();
+			for (int d = 0; d < n;) {
+				for (final Entry<Label> sourceEntry : sourceAccess.get().entrySet())
+					counts.adjustOrPutValue(sourceEntry.getElement().id(), sourceEntry.getCount(), sourceEntry.getCount());
+				for (d = 0; d < n; ++d) {
+					if (position[d] < windowMax[d]) {
+						++position[d];
+						sourceAccess.fwd(d);
+						break;
+					} else {
+						sourceAccess.move(windowMin[d] - position[d], d);
+						position[d] = windowMin[d];
+					}
+				}
+			}
+
+			final long[] ids = selectEntries(counts, maxNumEntries);
+			final LabelMultisetEntryList entries = new LabelMultisetEntryList(ids.length);
+			for (final long id : ids) {
+				entry.setId(id);
+				entry.setCount((int)Math.min(counts.get(id), Integer.MAX_VALUE));
+				entries.add(entry);
+			}
+			targetTypes.add(new LabelMultisetType(entries));
+
+			for (e = 0; e < n; ++e) {
+				if (targetPosition[e] < targetMax[e]) {
+					++targetPosition[e];
+					break;
+				} else
+					targetPosition[e] = targetMin[e];
+			}
+		}
+
+		return new ListImg<>(targetTypes, Intervals.dimensionsAsLongArray(targetInterval));
+	}
+
+	/**
+	 * Returns the ids of a label count map in ascending order, restricted
+	 * to the maxNumEntries ids with the largest counts if
+	 * {@code maxNumEntries > 0}.
+	 */
+	private static long[] selectEntries(final TLongLongHashMap counts, final int maxNumEntries) {
+
+		final long[] ids = counts.keys();
+		if (maxNumEntries > 0 && ids.length > maxNumEntries) {
+			final Long[] sortedByCount = new Long[ids.length];
+			Arrays.setAll(sortedByCount, i -> ids[i]);
+			Arrays.sort(sortedByCount, (a, b) -> {
+				final int c = Long.compare(counts.get(b), counts.get(a));
+				return c == 0 ? Long.compare(a, b) : c;
+			});
+			final long[] selectedIds = new long[maxNumEntries];
+			Arrays.setAll(selectedIds, i -> sortedByCount[i]);
+			Arrays.sort(selectedIds);
+			return selectedIds;
+		}
+		Arrays.sort(ids);
+		return ids;
+	}
+
+	private static void setWindow(
+			final long[] targetPosition,
+			final Interval sourceInterval,
+			final long[] factors,
+			final long[] windowMin,
+			final long[] windowMax) {
+
+		for (int d = 0; d < windowMin.length; ++d) {
+			windowMin[d] = Math.min(targetPosition[d] * factors[d], sourceInterval.max(d));
+			windowMax[d] = Math.min(windowMin[d] + factors[d] - 1, sourceInterval.max(d));
+		}
+	}
+
+	private static long[] relativeFactors(final long[] sourceFactors, final long[] targetFactors) {
+
+		final long[] relativeFactors = new long[targetFactors.length];
+		for (int d = 0; d < relativeFactors.length; ++d) {
+			if (targetFactors[d] % sourceFactors[d] != 0)
+				throw new IllegalArgumentException(
+						"Downsampling factors " + Arrays.toString(targetFactors) +
+						" are not integer multiples of " + Arrays.toString(sourceFactors) + ".");
+			relativeFactors[d] = targetFactors[d] / sourceFactors[d];
+		}
+		return relativeFactors;
+	}
+
+	/**
+	 * Lists the target grid positions whose downsampling windows intersect
+	 * any of the given source grid positions.
+	 */
+	private static List<long[]> affectedGridPositions(
+			final List<long[]> sourceGridPositions,
+			final DatasetAttributes sourceAttributes,
+			final DatasetAttributes targetAttributes,
+			final long[] factors) {
+
+		final CellGrid sourceGrid = new CellGrid(sourceAttributes.getDimensions(), sourceAttributes.getBlockSize());
+		final long[] targetDimensions = targetAttributes.getDimensions();
+		final int[] targetBlockSize = targetAttributes.getBlockSize();
+		final long[] targetGridDimensions = new CellGrid(targetDimensions, targetBlockSize).getGridDimensions();
+		final FinalInterval targetDatasetInterval = new FinalInterval(targetDimensions);
+
+		final int n = targetDimensions.length;
+		final long[] min = new long[n];
+		final long[] max = new long[n];
+		final TLongHashSet visited = new TLongHashSet();
+		final ArrayList<long[]> targetGridPositions = new ArrayList<>();
+		for (final long[] sourceGridPosition : sourceGridPositions) {
+			final Interval sourceInterval = N5Utils.blockInterval(sourceGrid, sourceGridPosition);
+			for (int d = 0; d < n; ++d) {
+				min[d] = sourceInterval.min(d) / factors[d];
+				max[d] = sourceInterval.max(d) / factors[d];
+			}
+			final FinalInterval targetInterval = Intervals.intersect(targetDatasetInterval, new FinalInterval(min, max));
+			for (final long[] targetGridPosition : N5Utils.gridPositions(targetInterval, targetBlockSize))
+				if (visited.add(IntervalIndexer.positionToIndex(targetGridPosition, targetGridDimensions)))
+					targetGridPositions.add(targetGridPosition);
+		}
+		return targetGridPositions;
+	}
+}
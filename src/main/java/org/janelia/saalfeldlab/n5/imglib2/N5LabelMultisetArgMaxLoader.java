@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2017-2018, Stephan Saalfeld, Philipp Hanslovsky, Igor Pisarev
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5.imglib2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5Reader;
+
+import net.imglib2.cache.img.CellLoader;
+import net.imglib2.cache.img.SingleCellArrayImg;
+import net.imglib2.type.numeric.integer.UnsignedLongType;
+
+/**
+ * A {@link CellLoader} that reads only the argmax of each pixel from the
+ * blocks of a {@link net.imglib2.type.label.LabelMultisetType} dataset.  The
+ * argmax is stored first in a serialized block, so the list offsets and entry
+ * lists are neither decoded nor cached.
+ */
+public class N5LabelMultisetArgMaxLoader implements CellLoader<UnsignedLongType> {
+
+	private final N5Reader n5;
+
+	private final String dataset;
+
+	private final DatasetAttributes attributes;
+
+	private final long defaultLabelId;
+
+	/**
+	 *
+	 * @param n5
+	 * @param dataset
+	 * @param defaultLabelId
+	 *            argmax of all pixels in blocks that do not exist
+	 * @throws IOException
+	 */
+	public N5LabelMultisetArgMaxLoader(
+			final N5Reader n5,
+			final String dataset,
+			final long defaultLabelId) throws IOException {
+
+		this.n5 = n5;
+		this.dataset = dataset;
+		this.attributes = n5.getDatasetAttributes(dataset);
+		this.defaultLabelId = defaultLabelId;
+	}
+
+	@Override
+	public void load(final SingleCellArrayImg<UnsignedLongType, ?> cell) {
+
+		final int[] blockSize = attributes.getBlockSize();
+		final long[] gridPosition = new long[cell.numDimensions()];
+		for (int d = 0; d < gridPosition.length; ++d)
+			gridPosition[d] = cell.min(d) / blockSize[d];
+		final DataBlock<?> block;
+		try {
+			block = n5.readBlock(dataset, attributes, gridPosition);
+		} catch (final IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		if (block == null) {
+			for (final UnsignedLongType t : cell)
+				t.set(defaultLabelId);
+		} else {
+			final ByteBuffer bb = ByteBuffer.wrap((byte[])block.getData());
+			bb.getInt();
+			for (final UnsignedLongType t : cell)
+				t.set(bb.getLong());
+		}
+	}
+}
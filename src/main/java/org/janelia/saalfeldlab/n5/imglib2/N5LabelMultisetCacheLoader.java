@@ -4,7 +4,9 @@ import java.io.IOException;
 import java.lang.invoke.MethodHandles;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiFunction;
+import java.util.function.LongUnaryOperator;
 
 import org.janelia.saalfeldlab.n5.DataBlock;
 import org.janelia.saalfeldlab.n5.DatasetAttributes;
@@ -12,24 +14,38 @@ import org.janelia.saalfeldlab.n5.N5Reader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import net.imglib2.img.cell.Cell;
 import net.imglib2.img.cell.CellGrid;
 import net.imglib2.type.label.AbstractLabelMultisetLoader;
 import net.imglib2.type.label.ByteUtils;
+import net.imglib2.type.label.Label;
 import net.imglib2.type.label.LabelMultisetEntry;
 import net.imglib2.type.label.LabelMultisetEntryList;
+import net.imglib2.type.label.LabelUtils;
 import net.imglib2.type.label.LongMappedAccessData;
+import net.imglib2.type.label.VolatileLabelMultisetArray;
+import net.imglib2.util.Intervals;
 
 public class N5LabelMultisetCacheLoader extends AbstractLabelMultisetLoader
 {
 
 	private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
+	/* same as the cells of absent blocks in AbstractLabelMultisetLoader */
+	private static final VolatileLabelMultisetArray EMPTY_ACCESS = new VolatileLabelMultisetArray( 0, true, new long[] { Label.INVALID } );
+
 	private final N5Reader n5;
 
 	private final String dataset;
 
 	private final BiFunction<CellGrid, long[], byte[]> nullReplacement;
 
+	private final LongUnaryOperator lookup;
+
+	private final DatasetAttributes attributes;
+
+	private final ConcurrentHashMap< ShapeKey, VolatileLabelMultisetArray > nullReplacementArrays = new ConcurrentHashMap<>();
+
 	public N5LabelMultisetCacheLoader(
 			final N5Reader n5,
 			final String dataset ) throws IOException
@@ -41,11 +57,31 @@ public class N5LabelMultisetCacheLoader extends AbstractLabelMultisetLoader
 			final N5Reader n5,
 			final String dataset,
 			final BiFunction<CellGrid, long[], byte[]> nullReplacement ) throws IOException
+	{
+		this( n5, dataset, nullReplacement, null );
+	}
+
+	/**
+	 * @param n5
+	 * @param dataset
+	 * @param nullReplacement
+	 * @param lookup
+	 *            applied to all label ids while blocks are decoded, ignored
+	 *            if {@code null}
+	 * @throws IOException
+	 */
+	public N5LabelMultisetCacheLoader(
+			final N5Reader n5,
+			final String dataset,
+			final BiFunction<CellGrid, long[], byte[]> nullReplacement,
+			final LongUnaryOperator lookup ) throws IOException
 	{
 		super( generateCellGrid( n5, dataset ) );
 		this.n5 = n5;
 		this.dataset = dataset;
 		this.nullReplacement = nullReplacement;
+		this.lookup = lookup;
+		this.attributes = n5.getDatasetAttributes( dataset );
 	}
 
 	public static BiFunction< CellGrid, long[], byte[] > constantNullReplacement( final long id )
@@ -63,14 +99,57 @@ public class N5LabelMultisetCacheLoader extends AbstractLabelMultisetLoader
 		return new CellGrid( dimensions, cellDimensions );
 	}
 
+	/**
+	 * Absent blocks that are replaced by a
+	 * {@link #constantNullReplacement(long) constant label} share one
+	 * immutable {@link VolatileLabelMultisetArray} per distinct cell shape,
+	 * so repeated misses neither serialize nor deserialize anything.  Absent
+	 * blocks without replacement get an empty cell like in
+	 * {@link AbstractLabelMultisetLoader#get(Long)}.
+	 */
+	@Override
+	public Cell< VolatileLabelMultisetArray > get( final Long key )
+	{
+		final int n = grid.numDimensions();
+		final long[] cellMin = new long[ n ];
+		final int[] cellDims = new int[ n ];
+		final long[] gridPosition = new long[ n ];
+		grid.getCellDimensions( key, cellMin, cellDims );
+		grid.getCellGridPositionFlat( key, gridPosition );
+		final int numElements = ( int ) Intervals.numElements( cellDims );
+
+		final byte[] blockData = readData( gridPosition );
+		if ( blockData == null )
+		{
+			if ( lookup == null && nullReplacement instanceof ConstantNullReplacement )
+			{
+				final VolatileLabelMultisetArray array = nullReplacementArrays.computeIfAbsent(
+						new ShapeKey( cellDims ),
+						k -> LabelUtils.fromBytes( nullReplacement.apply( grid, gridPosition ), numElements ) );
+				return new Cell<>( cellDims, cellMin, array );
+			}
+		}
+
+		final byte[] data = remap( blockData == null ? nullReplacement.apply( grid, gridPosition ) : blockData );
+		if ( data == null )
+			return new Cell<>( cellDims, cellMin, EMPTY_ACCESS );
+		return new Cell<>( cellDims, cellMin, LabelUtils.fromBytes( data, numElements ) );
+	}
+
 	@Override
 	protected byte[] getData( final long... gridPosition )
+	{
+		final byte[] blockData = readData( gridPosition );
+		return remap( blockData == null ? nullReplacement.apply( super.grid, gridPosition ) : blockData );
+	}
+
+	private byte[] readData( final long... gridPosition )
 	{
 		final DataBlock< ? > block;
 		try
 		{
 			LOG.debug( "Reading block for position {}", gridPosition );
-			block = n5.readBlock( dataset, n5.getDatasetAttributes( dataset ), gridPosition );
+			block = n5.readBlock( dataset, attributes, gridPosition );
 			LOG.debug( "Read block for position {} {}", gridPosition, block );
 		}
 		catch ( final IOException e )
@@ -78,7 +157,35 @@ public class N5LabelMultisetCacheLoader extends AbstractLabelMultisetLoader
 			LOG.debug( "Caught exception while reading block", e );
 			throw new RuntimeException( e );
 		}
-		return block == null ? nullReplacement.apply( super.grid, gridPosition ): ( byte[] ) block.getData();
+		return block == null ? null : ( byte[] ) block.getData();
+	}
+
+	private byte[] remap( final byte[] data )
+	{
+		return lookup == null || data == null ? data : LabelMultisetBlockSerializer.remap( data, lookup );
+	}
+
+	private static final class ShapeKey
+	{
+
+		private final int[] shape;
+
+		private ShapeKey( final int[] shape )
+		{
+			this.shape = shape;
+		}
+
+		@Override
+		public boolean equals( final Object other )
+		{
+			return other instanceof ShapeKey && Arrays.equals( shape, ( ( ShapeKey ) other ).shape );
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Arrays.hashCode( shape );
+		}
 	}
 
 	private static class ConstantNullReplacement implements BiFunction< CellGrid, long[], byte[] >
@@ -86,6 +193,8 @@ public class N5LabelMultisetCacheLoader extends AbstractLabelMultisetLoader
 
 		private final long id;
 
+		private final ConcurrentHashMap< ShapeKey, byte[] > serializedBlocks = new ConcurrentHashMap<>();
+
 		private ConstantNullReplacement( final long id )
 		{
 			this.id = id;
@@ -123,6 +232,10 @@ public class N5LabelMultisetCacheLoader extends AbstractLabelMultisetLoader
 		//			ByteUtils.putByte( bb.get(), listData.data, i );
 		//		}
 		//		return new VolatileLabelMultisetArray( data, listData, true, argMax );
+		/**
+		 * Serialized blocks are memoized per distinct cell shape and shared,
+		 * they must not be modified.
+		 */
 		@Override
 		public byte[] apply( final CellGrid cellGrid, final long[] cellPos )
 		{
@@ -130,6 +243,11 @@ public class N5LabelMultisetCacheLoader extends AbstractLabelMultisetLoader
 			final int[] cellDims = new int[ cellMin.length ];
 			Arrays.setAll(cellMin, d-> cellPos[ d ] * cellGrid.cellDimension( d ) );
 			cellGrid.getCellDimensions( cellPos, cellMin, cellDims );
+			return serializedBlocks.computeIfAbsent( new ShapeKey( cellDims ), k -> serialize( cellDims ) );
+		}
+
+		private byte[] serialize( final int[] cellDims )
+		{
 			final int numElements = numElements( cellDims );
 
 			final LongMappedAccessData listData = LongMappedAccessData.factory.createStorage( 0 );
@@ -3,7 +3,9 @@ package org.janelia.saalfeldlab.n5.imglib2;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
@@ -17,19 +19,27 @@ import org.janelia.saalfeldlab.n5.DatasetAttributes;
 import org.janelia.saalfeldlab.n5.N5Reader;
 import org.janelia.saalfeldlab.n5.N5Writer;
 
+import gnu.trove.map.hash.TIntLongHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import net.imglib2.FinalInterval;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.cache.Cache;
 import net.imglib2.cache.LoaderCache;
 import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.cache.img.LoadedCellCacheLoader;
 import net.imglib2.cache.ref.SoftRefLoaderCache;
 import net.imglib2.cache.util.LoaderCacheAsCacheAdapter;
+import net.imglib2.img.basictypeaccess.AccessFlags;
+import net.imglib2.img.basictypeaccess.ArrayDataAccessFactory;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
 import net.imglib2.img.cell.Cell;
 import net.imglib2.img.cell.CellGrid;
 import net.imglib2.img.cell.LazyCellImg;
 import net.imglib2.type.label.Label;
 import net.imglib2.type.label.LabelMultisetType;
-import net.imglib2.type.label.LabelMultisetType.Entry;
-import net.imglib2.type.label.LabelUtils;
 import net.imglib2.type.label.VolatileLabelMultisetArray;
+import net.imglib2.type.numeric.integer.UnsignedLongType;
+import net.imglib2.util.IntervalIndexer;
 import net.imglib2.util.Intervals;
 import net.imglib2.view.Views;
 
@@ -116,14 +126,65 @@ public class N5LabelMultisets {
 			final BiFunction<CellGrid, long[], byte[]> nullReplacement,
 			final LoaderCache<Long, Cell<VolatileLabelMultisetArray>> loaderCache) throws IOException {
 
+		return openLabelMultiset(n5, dataset, nullReplacement, loaderCache, null);
+	}
+
+	/**
+	 * Open an N5 dataset of {@link LabelMultisetType} as a memory cached {@link LazyCellImg}
+	 * whose label ids are mapped through a {@link LabelLookup} while blocks are decoded.
+	 * Entries that map to the same id are merged.  Swapping the table of the lookup
+	 * invalidates the cached cells without touching the dataset.
+	 *
+	 * @param n5
+	 * @param dataset
+	 * @param lookup
+	 * @return
+	 * @throws IOException
+	 */
+	public static final RandomAccessibleInterval<LabelMultisetType> openLabelMultiset(
+			final N5Reader n5,
+			final String dataset,
+			final LabelLookup lookup) throws IOException {
+
+		return openLabelMultiset(
+				n5,
+				dataset,
+				N5LabelMultisetCacheLoader.constantNullReplacement(Label.BACKGROUND),
+				new SoftRefLoaderCache<>(),
+				lookup);
+	}
+
+	/**
+	 * Open an N5 dataset of {@link LabelMultisetType} as a memory cached {@link LazyCellImg}
+	 * whose label ids are mapped through a {@link LabelLookup} while blocks are decoded.
+	 * Entries that map to the same id are merged.  Swapping the table of the lookup
+	 * invalidates the cached cells without touching the dataset.
+	 *
+	 * @param n5
+	 * @param dataset
+	 * @param nullReplacement
+	 * @param loaderCache
+	 * @param lookup ignored if {@code null}
+	 * @return
+	 * @throws IOException
+	 */
+	public static final CachedCellImg<LabelMultisetType, VolatileLabelMultisetArray> openLabelMultiset(
+			final N5Reader n5,
+			final String dataset,
+			final BiFunction<CellGrid, long[], byte[]> nullReplacement,
+			final LoaderCache<Long, Cell<VolatileLabelMultisetArray>> loaderCache,
+			final LabelLookup lookup) throws IOException {
+
 		if (!isLabelMultisetType(n5, dataset))
 			throw new IOException(dataset + " is not a label multiset dataset.");
 
 		final DatasetAttributes attributes = n5.getDatasetAttributes(dataset);
 		final CellGrid grid = new CellGrid(attributes.getDimensions(), attributes.getBlockSize());
 
-		final N5LabelMultisetCacheLoader loader = new N5LabelMultisetCacheLoader(n5, dataset, nullReplacement);
+		final N5LabelMultisetCacheLoader loader = new N5LabelMultisetCacheLoader(n5, dataset, nullReplacement, lookup);
 		final LoaderCacheAsCacheAdapter<Long, Cell<VolatileLabelMultisetArray>> wrappedCache = new LoaderCacheAsCacheAdapter<>(loaderCache, loader);
+		if (lookup != null)
+			lookup.register(wrappedCache);
 
 		final CachedCellImg<LabelMultisetType, VolatileLabelMultisetArray> cachedImg = new CachedCellImg<>(
 				grid,
@@ -134,6 +195,72 @@ public class N5LabelMultisets {
 		return cachedImg;
 	}
 
+	/**
+	 * Open the argmax of an N5 dataset of {@link LabelMultisetType} as a memory cached {@link LazyCellImg}.
+	 * Only the argmax of each pixel is decoded and cached.
+	 *
+	 * @param n5
+	 * @param dataset
+	 * @return
+	 * @throws IOException
+	 */
+	public static final RandomAccessibleInterval<UnsignedLongType> openArgMax(
+			final N5Reader n5,
+			final String dataset) throws IOException {
+
+		return openArgMax(n5, dataset, Label.BACKGROUND);
+	}
+
+	/**
+	 * Open the argmax of an N5 dataset of {@link LabelMultisetType} as a memory cached {@link LazyCellImg}.
+	 * Only the argmax of each pixel is decoded and cached.
+	 *
+	 * @param n5
+	 * @param dataset
+	 * @param defaultLabelId
+	 * @return
+	 * @throws IOException
+	 */
+	public static final RandomAccessibleInterval<UnsignedLongType> openArgMax(
+			final N5Reader n5,
+			final String dataset,
+			final long defaultLabelId) throws IOException {
+
+		return openArgMax(n5, dataset, defaultLabelId, new SoftRefLoaderCache<>(), AccessFlags.setOf());
+	}
+
+	/**
+	 * Open the argmax of an N5 dataset of {@link LabelMultisetType} as a memory cached {@link LazyCellImg}.
+	 * Only the argmax of each pixel is decoded and cached.
+	 *
+	 * @param n5
+	 * @param dataset
+	 * @param defaultLabelId
+	 * @param loaderCache
+	 * @param accessFlags
+	 * @return
+	 * @throws IOException
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public static final <A extends ArrayDataAccess<A>> CachedCellImg<UnsignedLongType, A> openArgMax(
+			final N5Reader n5,
+			final String dataset,
+			final long defaultLabelId,
+			final LoaderCache<Long, Cell<A>> loaderCache,
+			final Set<AccessFlags> accessFlags) throws IOException {
+
+		if (!isLabelMultisetType(n5, dataset))
+			throw new IOException(dataset + " is not a label multiset dataset.");
+
+		final DatasetAttributes attributes = n5.getDatasetAttributes(dataset);
+		final CellGrid grid = new CellGrid(attributes.getDimensions(), attributes.getBlockSize());
+		final UnsignedLongType type = new UnsignedLongType();
+
+		final N5LabelMultisetArgMaxLoader loader = new N5LabelMultisetArgMaxLoader(n5, dataset, defaultLabelId);
+		final Cache<Long, Cell<A>> cache = loaderCache.withLoader(LoadedCellCacheLoader.get(grid, loader, type, accessFlags));
+		return new CachedCellImg(grid, type, cache, ArrayDataAccessFactory.get(type, accessFlags));
+	}
+
 	/**
 	 * Save a {@link RandomAccessibleInterval} of type {@link LabelMultisetType} as an N5 dataset.
 	 *
@@ -145,12 +272,91 @@ public class N5LabelMultisets {
 	 * @throws IOException
 	 */
 	public static final void saveLabelMultiset(
-			RandomAccessibleInterval<LabelMultisetType> source,
+			final RandomAccessibleInterval<LabelMultisetType> source,
 			final N5Writer n5,
 			final String dataset,
 			final int[] blockSize,
 			final Compression compression) throws IOException {
 
+		saveLabelMultiset(source, n5, dataset, blockSize, compression, SaveProgressListener.NONE);
+	}
+
+	/**
+	 * Save a {@link RandomAccessibleInterval} of type {@link LabelMultisetType} as an N5 dataset.
+	 * Progress is reported to a {@link SaveProgressListener}.
+	 *
+	 * @param source
+	 * @param n5
+	 * @param dataset
+	 * @param blockSize
+	 * @param compression
+	 * @param listener
+	 * @throws IOException
+	 */
+	public static final void saveLabelMultiset(
+			final RandomAccessibleInterval<LabelMultisetType> source,
+			final N5Writer n5,
+			final String dataset,
+			final int[] blockSize,
+			final Compression compression,
+			final SaveProgressListener listener) throws IOException {
+
+		saveLabelMultiset(source, n5, dataset, blockSize, compression, listener, null);
+	}
+
+	/**
+	 * Save a {@link RandomAccessibleInterval} of type {@link LabelMultisetType} as an N5 dataset.
+	 * Progress is reported to a {@link SaveProgressListener}, and the number of voxels per label
+	 * is accumulated into {@link LabelCounts} while the blocks are serialized.
+	 *
+	 * @param source
+	 * @param n5
+	 * @param dataset
+	 * @param blockSize
+	 * @param compression
+	 * @param listener
+	 * @param labelCounts may be {@code null}
+	 * @throws IOException
+	 */
+	public static final void saveLabelMultiset(
+			final RandomAccessibleInterval<LabelMultisetType> source,
+			final N5Writer n5,
+			final String dataset,
+			final int[] blockSize,
+			final Compression compression,
+			final SaveProgressListener listener,
+			final LabelCounts labelCounts) throws IOException {
+
+		saveLabelMultiset(source, n5, dataset, blockSize, compression, listener, labelCounts, false);
+	}
+
+	/**
+	 * Save a {@link RandomAccessibleInterval} of type {@link LabelMultisetType} as an N5 dataset.
+	 * Progress is reported to a {@link SaveProgressListener}, and the number of voxels per label
+	 * is accumulated into {@link LabelCounts} while the blocks are serialized.  Optionally, a new
+	 * {@link LabelBlockIndex} is created and filled from the serialized blocks.  Otherwise, an
+	 * existing index of the dataset is kept up to date.
+	 *
+	 * @param source
+	 * @param n5
+	 * @param dataset
+	 * @param blockSize
+	 * @param compression
+	 * @param listener
+	 * @param labelCounts may be {@code null}
+	 * @param createLabelBlockIndex
+	 * @throws IOException
+	 */
+	public static final void saveLabelMultiset(
+			RandomAccessibleInterval<LabelMultisetType> source,
+			final N5Writer n5,
+			final String dataset,
+			final int[] blockSize,
+			final Compression compression,
+			final SaveProgressListener listener,
+			final LabelCounts labelCounts,
+			final boolean createLabelBlockIndex) throws IOException {
+
 		source = Views.zeroMin(source);
 		final long[] dimensions = Intervals.dimensionsAsLongArray(source);
 		final DatasetAttributes attributes = new DatasetAttributes(
@@ -161,6 +367,10 @@ public class N5LabelMultisets {
 
 		n5.createDataset(dataset, attributes);
 		n5.setAttribute(dataset, LABEL_MULTISETTYPE_KEY, true);
+		final LabelBlockIndex.Writer labelBlockIndex = createLabelBlockIndex ?
+				LabelBlockIndex.create(n5, dataset, attributes) :
+				LabelBlockIndex.reset(n5, dataset, attributes);
+		LabelCounts.invalidate(n5, dataset);
 
 		final int n = dimensions.length;
 		final long[] max = Intervals.maxAsLongArray(source);
@@ -168,12 +378,19 @@ public class N5LabelMultisets {
 		final long[] gridPosition = new long[n];
 		final int[] intCroppedBlockSize = new int[n];
 		final long[] longCroppedBlockSize = new long[n];
+		listener.started(N5Utils.numBlocks(dimensions, blockSize));
 		for (int d = 0; d < n;) {
 			N5Utils.cropBlockDimensions(max, offset, blockSize, longCroppedBlockSize, intCroppedBlockSize, gridPosition);
+			final long t0 = System.nanoTime();
 			final RandomAccessibleInterval<LabelMultisetType> sourceBlock = Views.offsetInterval(source, offset, longCroppedBlockSize);
 			final ByteArrayDataBlock dataBlock = createDataBlock(sourceBlock, gridPosition);
+			if (labelCounts != null)
+				labelCounts.accumulate(dataBlock.getData());
 
+			final long t1 = System.nanoTime();
 			n5.writeBlock(dataset, attributes, dataBlock);
+			labelBlockIndex.write(dataBlock);
+			listener.blockSaved(gridPosition.clone(), dataBlock.getNumElements(), t1 - t0, System.nanoTime() - t1);
 
 			for (d = 0; d < n; ++d) {
 				offset[d] += blockSize[d];
@@ -206,6 +423,97 @@ public class N5LabelMultisets {
 			final Compression compression,
 			final ExecutorService exec) throws IOException, InterruptedException, ExecutionException {
 
+		saveLabelMultiset(source, n5, dataset, blockSize, compression, exec, SaveProgressListener.NONE);
+	}
+
+	/**
+	 * Save a {@link RandomAccessibleInterval} of type {@link LabelMultisetType} as an N5 dataset, multi-threaded.
+	 * Progress is reported to a {@link SaveProgressListener}.
+	 *
+	 * @param source
+	 * @param n5
+	 * @param dataset
+	 * @param blockSize
+	 * @param compression
+	 * @param exec
+	 * @param listener
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public static final void saveLabelMultiset(
+			final RandomAccessibleInterval<LabelMultisetType> source,
+			final N5Writer n5,
+			final String dataset,
+			final int[] blockSize,
+			final Compression compression,
+			final ExecutorService exec,
+			final SaveProgressListener listener) throws IOException, InterruptedException, ExecutionException {
+
+		saveLabelMultiset(source, n5, dataset, blockSize, compression, exec, listener, null);
+	}
+
+	/**
+	 * Save a {@link RandomAccessibleInterval} of type {@link LabelMultisetType} as an N5 dataset, multi-threaded.
+	 * Progress is reported to a {@link SaveProgressListener}, and the number of voxels per label
+	 * is accumulated into {@link LabelCounts} while the blocks are serialized.
+	 *
+	 * @param source
+	 * @param n5
+	 * @param dataset
+	 * @param blockSize
+	 * @param compression
+	 * @param exec
+	 * @param listener
+	 * @param labelCounts may be {@code null}
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public static final void saveLabelMultiset(
+			final RandomAccessibleInterval<LabelMultisetType> source,
+			final N5Writer n5,
+			final String dataset,
+			final int[] blockSize,
+			final Compression compression,
+			final ExecutorService exec,
+			final SaveProgressListener listener,
+			final LabelCounts labelCounts) throws IOException, InterruptedException, ExecutionException {
+
+		saveLabelMultiset(source, n5, dataset, blockSize, compression, exec, listener, labelCounts, false);
+	}
+
+	/**
+	 * Save a {@link RandomAccessibleInterval} of type {@link LabelMultisetType} as an N5 dataset, multi-threaded.
+	 * Progress is reported to a {@link SaveProgressListener}, and the number of voxels per label
+	 * is accumulated into {@link LabelCounts} while the blocks are serialized.  Optionally, a new
+	 * {@link LabelBlockIndex} is created and filled from the serialized blocks.  Otherwise, an
+	 * existing index of the dataset is kept up to date.
+	 *
+	 * @param source
+	 * @param n5
+	 * @param dataset
+	 * @param blockSize
+	 * @param compression
+	 * @param exec
+	 * @param listener
+	 * @param labelCounts may be {@code null}
+	 * @param createLabelBlockIndex
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public static final void saveLabelMultiset(
+			final RandomAccessibleInterval<LabelMultisetType> source,
+			final N5Writer n5,
+			final String dataset,
+			final int[] blockSize,
+			final Compression compression,
+			final ExecutorService exec,
+			final SaveProgressListener listener,
+			final LabelCounts labelCounts,
+			final boolean createLabelBlockIndex) throws IOException, InterruptedException, ExecutionException {
+
 		final RandomAccessibleInterval<LabelMultisetType> zeroMinSource = Views.zeroMin(source);
 		final long[] dimensions = Intervals.dimensionsAsLongArray(zeroMinSource);
 		final DatasetAttributes attributes = new DatasetAttributes(
@@ -216,10 +524,15 @@ public class N5LabelMultisets {
 
 		n5.createDataset(dataset, attributes);
 		n5.setAttribute(dataset, LABEL_MULTISETTYPE_KEY, true);
+		final LabelBlockIndex.Writer labelBlockIndex = createLabelBlockIndex ?
+				LabelBlockIndex.create(n5, dataset, attributes) :
+				LabelBlockIndex.reset(n5, dataset, attributes);
+		LabelCounts.invalidate(n5, dataset);
 
 		final int n = dimensions.length;
 		final long[] max = Intervals.maxAsLongArray(zeroMinSource);
 		final long[] offset = new long[n];
+		listener.started(N5Utils.numBlocks(dimensions, blockSize));
 
 		final ArrayList<Future<?>> futures = new ArrayList<>();
 		for (int d = 0; d < n;) {
@@ -241,12 +554,18 @@ public class N5LabelMultisets {
 										intCroppedBlockSize,
 										gridPosition);
 
+								final long t0 = System.nanoTime();
 								final RandomAccessibleInterval<LabelMultisetType> sourceBlock = Views
 										.offsetInterval(zeroMinSource, fOffset, longCroppedBlockSize);
 								final ByteArrayDataBlock dataBlock = createDataBlock(sourceBlock, gridPosition);
+								if (labelCounts != null)
+									labelCounts.accumulate(dataBlock.getData());
 
 								try {
+									final long t1 = System.nanoTime();
 									n5.writeBlock(dataset, attributes, dataBlock);
+									labelBlockIndex.write(dataBlock);
+									listener.blockSaved(gridPosition, dataBlock.getNumElements(), t1 - t0, System.nanoTime() - t1);
 								} catch (final IOException e) {
 									e.printStackTrace();
 								}
@@ -275,14 +594,39 @@ public class N5LabelMultisets {
 	 * @throws IOException
 	 */
 	public static final void saveLabelMultisetBlock(
-			RandomAccessibleInterval<LabelMultisetType> source,
+			final RandomAccessibleInterval<LabelMultisetType> source,
 			final N5Writer n5,
 			final String dataset,
 			final DatasetAttributes attributes,
 			final long[] gridOffset) throws IOException {
 
+		saveLabelMultisetBlock(source, n5, dataset, attributes, gridOffset, SaveProgressListener.NONE);
+	}
+
+	/**
+	 * Save a {@link RandomAccessibleInterval} of type {@link LabelMultisetType} into an existing N5 dataset.
+	 * Progress is reported to a {@link SaveProgressListener}.
+	 *
+	 * @param source
+	 * @param n5
+	 * @param dataset
+	 * @param attributes
+	 * @param gridOffset
+	 * @param listener
+	 * @throws IOException
+	 */
+	public static final void saveLabelMultisetBlock(
+			RandomAccessibleInterval<LabelMultisetType> source,
+			final N5Writer n5,
+			final String dataset,
+			final DatasetAttributes attributes,
+			final long[] gridOffset,
+			final SaveProgressListener listener) throws IOException {
+
 		if (!isLabelMultisetType(n5, dataset))
 			throw new IOException(dataset + " is not a label multiset dataset.");
+		final LabelBlockIndex.Writer labelBlockIndex = LabelBlockIndex.openWriter(n5, dataset);
+		LabelCounts.invalidate(n5, dataset);
 
 		source = Views.zeroMin(source);
 		final long[] dimensions = Intervals.dimensionsAsLongArray(source);
@@ -294,6 +638,7 @@ public class N5LabelMultisets {
 		final int[] blockSize = attributes.getBlockSize();
 		final int[] intCroppedBlockSize = new int[n];
 		final long[] longCroppedBlockSize = new long[n];
+		listener.started(N5Utils.numBlocks(dimensions, blockSize));
 		for (int d = 0; d < n;) {
 			N5Utils.cropBlockDimensions(
 					max,
@@ -303,10 +648,14 @@ public class N5LabelMultisets {
 					longCroppedBlockSize,
 					intCroppedBlockSize,
 					gridPosition);
+			final long t0 = System.nanoTime();
 			final RandomAccessibleInterval<LabelMultisetType> sourceBlock = Views.offsetInterval(source, offset, longCroppedBlockSize);
 			final ByteArrayDataBlock dataBlock = createDataBlock(sourceBlock, gridPosition);
 
+			final long t1 = System.nanoTime();
 			n5.writeBlock(dataset, attributes, dataBlock);
+			labelBlockIndex.write(dataBlock);
+			listener.blockSaved(gridPosition.clone(), dataBlock.getNumElements(), t1 - t0, System.nanoTime() - t1);
 
 			for (d = 0; d < n; ++d) {
 				offset[d] += blockSize[d];
@@ -408,8 +757,35 @@ public class N5LabelMultisets {
 			final long[] gridOffset,
 			final ExecutorService exec) throws IOException, InterruptedException, ExecutionException {
 
+		saveLabelMultisetBlock(source, n5, dataset, gridOffset, exec, SaveProgressListener.NONE);
+	}
+
+	/**
+	 * Save a {@link RandomAccessibleInterval} of type {@link LabelMultisetType} into an existing N5 dataset, multi-threaded.
+	 * Progress is reported to a {@link SaveProgressListener}.
+	 *
+	 * @param source
+	 * @param n5
+	 * @param dataset
+	 * @param gridOffset
+	 * @param exec
+	 * @param listener
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public static final void saveLabelMultisetBlock(
+			final RandomAccessibleInterval<LabelMultisetType> source,
+			final N5Writer n5,
+			final String dataset,
+			final long[] gridOffset,
+			final ExecutorService exec,
+			final SaveProgressListener listener) throws IOException, InterruptedException, ExecutionException {
+
 		if (!isLabelMultisetType(n5, dataset))
 			throw new IOException(dataset + " is not a label multiset dataset.");
+		final LabelBlockIndex.Writer labelBlockIndex = LabelBlockIndex.openWriter(n5, dataset);
+		LabelCounts.invalidate(n5, dataset);
 
 		final RandomAccessibleInterval<LabelMultisetType> zeroMinSource = Views.zeroMin(source);
 		final long[] dimensions = Intervals.dimensionsAsLongArray(zeroMinSource);
@@ -419,6 +795,7 @@ public class N5LabelMultisets {
 			final long[] max = Intervals.maxAsLongArray(zeroMinSource);
 			final long[] offset = new long[n];
 			final int[] blockSize = attributes.getBlockSize();
+			listener.started(N5Utils.numBlocks(dimensions, blockSize));
 
 			final ArrayList<Future<?>> futures = new ArrayList<>();
 			for (int d = 0; d < n;) {
@@ -441,12 +818,16 @@ public class N5LabelMultisets {
 											intCroppedBlockSize,
 											gridPosition);
 
+									final long t0 = System.nanoTime();
 									final RandomAccessibleInterval<LabelMultisetType> sourceBlock = Views
 											.offsetInterval(zeroMinSource, fOffset, longCroppedBlockSize);
 									final ByteArrayDataBlock dataBlock = createDataBlock(sourceBlock, gridPosition);
 
 									try {
+										final long t1 = System.nanoTime();
 										n5.writeBlock(dataset, attributes, dataBlock);
+										labelBlockIndex.write(dataBlock);
+										listener.blockSaved(gridPosition, dataBlock.getNumElements(), t1 - t0, System.nanoTime() - t1);
 									} catch (final IOException e) {
 										e.printStackTrace();
 									}
@@ -492,6 +873,8 @@ public class N5LabelMultisets {
 
 		if (!isLabelMultisetType(n5, dataset))
 			throw new IOException(dataset + " is not a label multiset dataset.");
+		final LabelBlockIndex.Writer labelBlockIndex = LabelBlockIndex.openWriter(n5, dataset);
+		LabelCounts.invalidate(n5, dataset);
 
 		source = Views.zeroMin(source);
 		final long[] dimensions = Intervals.dimensionsAsLongArray(source);
@@ -515,8 +898,10 @@ public class N5LabelMultisets {
 			final RandomAccessibleInterval<LabelMultisetType> sourceBlock = Views.offsetInterval(source, offset, longCroppedBlockSize);
 			final ByteArrayDataBlock dataBlock = createNonEmptyDataBlock(sourceBlock, gridPosition, defaultLabelId);
 
-			if (dataBlock != null)
+			if (dataBlock != null) {
 				n5.writeBlock(dataset, attributes, dataBlock);
+				labelBlockIndex.write(dataBlock);
+			}
 
 			for (d = 0; d < n; ++d) {
 				offset[d] += blockSize[d];
@@ -656,6 +1041,266 @@ public class N5LabelMultisets {
 		saveLabelMultisetNonEmptyBlock(source, n5, dataset, gridOffset, Label.BACKGROUND);
 	}
 
+	/**
+	 * Convert an integer label dataset into a label multiset dataset with the
+	 * same dimensions and block size, multi-threaded.  Every pixel becomes a
+	 * {@link LabelMultisetType} with a single entry of count 1.  Each block of
+	 * the source dataset is read once and converted directly into its
+	 * serialized form, so memory use is bounded by the blocks in flight.
+	 * Blocks that do not exist in the source dataset are not written, and
+	 * read as {@link Label#BACKGROUND} by {@link #openLabelMultiset(N5Reader, String)}.
+	 *
+	 * @param n5
+	 * @param sourceDataset
+	 * @param targetDataset
+	 * @param compression
+	 * @param exec
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public static final void convertToLabelMultiset(
+			final N5Writer n5,
+			final String sourceDataset,
+			final String targetDataset,
+			final Compression compression,
+			final ExecutorService exec) throws IOException, InterruptedException, ExecutionException {
+
+		convertToLabelMultiset(n5, sourceDataset, targetDataset, compression, exec, SaveProgressListener.NONE);
+	}
+
+	/**
+	 * Convert an integer label dataset into a label multiset dataset with the
+	 * same dimensions and block size, multi-threaded.  Every pixel becomes a
+	 * {@link LabelMultisetType} with a single entry of count 1.  Each block of
+	 * the source dataset is read once and converted directly into its
+	 * serialized form, so memory use is bounded by the blocks in flight.
+	 * Blocks that do not exist in the source dataset are not written, and
+	 * read as {@link Label#BACKGROUND} by {@link #openLabelMultiset(N5Reader, String)}.
+	 * Progress is reported to a {@link SaveProgressListener}.
+	 *
+	 * @param n5
+	 * @param sourceDataset
+	 * @param targetDataset
+	 * @param compression
+	 * @param exec
+	 * @param listener
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public static final void convertToLabelMultiset(
+			final N5Writer n5,
+			final String sourceDataset,
+			final String targetDataset,
+			final Compression compression,
+			final ExecutorService exec,
+			final SaveProgressListener listener) throws IOException, InterruptedException, ExecutionException {
+
+		final DatasetAttributes sourceAttributes = n5.getDatasetAttributes(sourceDataset);
+		if (sourceAttributes == null)
+			throw new IOException("Dataset " + sourceDataset + " does not exist.");
+
+		final DataType sourceDataType = sourceAttributes.getDataType();
+		switch (sourceDataType) {
+		case FLOAT32:
+		case FLOAT64:
+		case OBJECT:
+			throw new IOException(sourceDataset + " is not an integer dataset.");
+		default:
+		}
+
+		final DatasetAttributes attributes = new DatasetAttributes(
+				sourceAttributes.getDimensions(),
+				sourceAttributes.getBlockSize(),
+				DataType.UINT8,
+				compression);
+
+		n5.createDataset(targetDataset, attributes);
+		n5.setAttribute(targetDataset, LABEL_MULTISETTYPE_KEY, true);
+		final LabelBlockIndex.Writer labelBlockIndex = LabelBlockIndex.reset(n5, targetDataset, attributes);
+		LabelCounts.invalidate(n5, targetDataset);
+
+		final List<long[]> gridPositions = N5Utils.gridPositions(new FinalInterval(attributes.getDimensions()), attributes.getBlockSize());
+		listener.started(gridPositions.size());
+
+		final ArrayList<Future<Void>> futures = new ArrayList<>();
+		for (final long[] gridPosition : gridPositions) {
+			futures.add(
+					exec.submit(
+							() -> {
+
+								final DataBlock<?> sourceBlock = n5.readBlock(sourceDataset, sourceAttributes, gridPosition);
+								if (sourceBlock == null)
+									return null;
+
+								final long t0 = System.nanoTime();
+								final ByteArrayDataBlock dataBlock = new ByteArrayDataBlock(
+										sourceBlock.getSize(),
+										gridPosition,
+										LabelMultisetBlockSerializer.serialize(toLabels(sourceBlock.getData(), sourceDataType)));
+
+								final long t1 = System.nanoTime();
+								n5.writeBlock(targetDataset, attributes, dataBlock);
+								labelBlockIndex.write(dataBlock);
+								listener.blockSaved(gridPosition, dataBlock.getNumElements(), t1 - t0, System.nanoTime() - t1);
+								return null;
+							}));
+		}
+		for (final Future<Void> f : futures)
+			f.get();
+	}
+
+	/**
+	 * Change the labels of a sparse set of voxels in an existing label multiset dataset, multi-threaded.
+	 * Each changed voxel gets a single entry with the new label and the total count of its previous
+	 * multiset.  The affected blocks are loaded through {@link N5LabelMultisetCacheLoader}, patched
+	 * without decoding the unchanged multisets, and rewritten in parallel.  Unaffected blocks are
+	 * not touched.  Missing blocks are treated as {@link Label#BACKGROUND}.  Stored
+	 * {@link LabelCounts} and the {@link LabelBlockIndex} of the dataset are updated.
+	 *
+	 * @param n5
+	 * @param dataset
+	 * @param positions voxel positions
+	 * @param labels new label of each voxel
+	 * @param exec
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public static final void updateLabels(
+			final N5Writer n5,
+			final String dataset,
+			final long[][] positions,
+			final long[] labels,
+			final ExecutorService exec) throws IOException, InterruptedException, ExecutionException {
+
+		if (positions.length != labels.length)
+			throw new IllegalArgumentException("Number of positions and labels differ.");
+
+		if (!isLabelMultisetType(n5, dataset))
+			throw new IOException(dataset + " is not a label multiset dataset.");
+
+		final DatasetAttributes attributes = n5.getDatasetAttributes(dataset);
+		final CellGrid grid = new CellGrid(attributes.getDimensions(), attributes.getBlockSize());
+		final long[] gridDimensions = grid.getGridDimensions();
+		final int n = grid.numDimensions();
+
+		/* group changes by block */
+		final TLongObjectHashMap<TIntLongHashMap> changesByBlock = new TLongObjectHashMap<>();
+		final long[] gridPosition = new long[n];
+		final long[] cellMin = new long[n];
+		final int[] cellDimensions = new int[n];
+		final long[] positionInCell = new long[n];
+		for (int i = 0; i < positions.length; ++i) {
+			final long[] position = positions[i];
+			for (int d = 0; d < n; ++d)
+				if (position[d] < 0 || position[d] >= grid.imgDimension(d))
+					throw new IllegalArgumentException("Position " + Arrays.toString(position) + " is outside of " + dataset + ".");
+			grid.getCellPosition(position, gridPosition);
+			grid.getCellDimensions(gridPosition, cellMin, cellDimensions);
+			for (int d = 0; d < n; ++d)
+				positionInCell[d] = position[d] - cellMin[d];
+
+			final long blockIndex = IntervalIndexer.positionToIndex(gridPosition, gridDimensions);
+			TIntLongHashMap changes = changesByBlock.get(blockIndex);
+			if (changes == null) {
+				changes = new TIntLongHashMap();
+				changesByBlock.put(blockIndex, changes);
+			}
+			changes.put((int)IntervalIndexer.positionToIndex(positionInCell, cellDimensions), labels[i]);
+		}
+
+		final N5LabelMultisetCacheLoader loader = new N5LabelMultisetCacheLoader(
+				n5,
+				dataset,
+				N5LabelMultisetCacheLoader.constantNullReplacement(Label.BACKGROUND));
+		final LabelBlockIndex.Writer labelBlockIndex = LabelBlockIndex.openWriter(n5, dataset);
+		final boolean hasCounts = LabelCounts.getCountsDataset(n5, dataset) != null;
+		final LabelCounts removedCounts = new LabelCounts();
+		final LabelCounts addedCounts = new LabelCounts();
+
+		final ArrayList<Future<Void>> futures = new ArrayList<>();
+		changesByBlock.forEachEntry((blockIndex, changes) -> {
+			futures.add(
+					exec.submit(
+							() -> {
+
+								final long[] blockGridPosition = new long[n];
+								final long[] blockMin = new long[n];
+								final int[] blockSize = new int[n];
+								IntervalIndexer.indexToPosition(blockIndex, gridDimensions, blockGridPosition);
+								grid.getCellDimensions(blockGridPosition, blockMin, blockSize);
+
+								final byte[] data = loader.getData(blockGridPosition);
+								final ByteArrayDataBlock dataBlock = new ByteArrayDataBlock(
+										blockSize,
+										blockGridPosition,
+										LabelMultisetBlockSerializer.patch(data, changes));
+								n5.writeBlock(dataset, attributes, dataBlock);
+								labelBlockIndex.write(dataBlock);
+								if (hasCounts) {
+									removedCounts.accumulate(data);
+									addedCounts.accumulate(dataBlock.getData());
+								}
+								return null;
+							}));
+			return true;
+		});
+		for (final Future<Void> f : futures)
+			f.get();
+
+		if (hasCounts)
+			LabelCounts.update(n5, dataset, removedCounts, addedCounts);
+	}
+
+	private static long[] toLabels(final Object data, final DataType dataType) {
+
+		switch (dataType) {
+		case INT64:
+		case UINT64:
+			return (long[])data;
+		case INT32: {
+			final int[] ints = (int[])data;
+			final long[] labels = new long[ints.length];
+			Arrays.setAll(labels, i -> ints[i]);
+			return labels;
+		}
+		case UINT32: {
+			final int[] ints = (int[])data;
+			final long[] labels = new long[ints.length];
+			Arrays.setAll(labels, i -> ints[i] & 0xffffffffL);
+			return labels;
+		}
+		case INT16: {
+			final short[] shorts = (short[])data;
+			final long[] labels = new long[shorts.length];
+			Arrays.setAll(labels, i -> shorts[i]);
+			return labels;
+		}
+		case UINT16: {
+			final short[] shorts = (short[])data;
+			final long[] labels = new long[shorts.length];
+			Arrays.setAll(labels, i -> shorts[i] & 0xffffL);
+			return labels;
+		}
+		case INT8: {
+			final byte[] bytes = (byte[])data;
+			final long[] labels = new long[bytes.length];
+			Arrays.setAll(labels, i -> bytes[i]);
+			return labels;
+		}
+		case UINT8: {
+			final byte[] bytes = (byte[])data;
+			final long[] labels = new long[bytes.length];
+			Arrays.setAll(labels, i -> bytes[i] & 0xffL);
+			return labels;
+		}
+		default:
+			throw new IllegalArgumentException("Type " + dataType + " is not an integer type.");
+		}
+	}
+
 	/**
 	 * Creates a {@link ByteArrayDataBlock} with serialized source contents of type {@link LabelMultisetType}.
 	 *
@@ -663,11 +1308,11 @@ public class N5LabelMultisets {
 	 * @param gridPosition
 	 * @return
 	 */
-	private static final ByteArrayDataBlock createDataBlock(
+	static final ByteArrayDataBlock createDataBlock(
 			final RandomAccessibleInterval<LabelMultisetType> source,
 			final long[] gridPosition) {
 
-		final byte[] data = LabelUtils.serializeLabelMultisetTypes(
+		final byte[] data = LabelMultisetBlockSerializer.serialize(
 				Views.flatIterable(source),
 				(int) Intervals.numElements(source)
 			);
@@ -685,6 +1330,8 @@ public class N5LabelMultisets {
 	 * Creates a {@link ByteArrayDataBlock} with serialized source contents of type {@link LabelMultisetType},
 	 * or returns {@code null} if all labels are equal to {@code defaultLabelId} (regardless of their counts).
 	 *
+	 * Emptiness is detected while the source is serialized, so every pixel is visited only once.
+	 *
 	 * @param source
 	 * @param gridPosition
 	 * @param defaultLabelId
@@ -695,11 +1342,16 @@ public class N5LabelMultisets {
 			final long[] gridPosition,
 			final long defaultLabelId) {
 
-		boolean isEmpty = true;
-		for (final LabelMultisetType lmt : Views.iterable(source))
-			for (final Entry<Label> entry : lmt.entrySet())
-				isEmpty &= entry.getElement().id() == defaultLabelId;
+		final byte[] data = LabelMultisetBlockSerializer.serializeNonEmpty(
+				Views.flatIterable(source),
+				(int) Intervals.numElements(source),
+				defaultLabelId
+			);
 
-		return isEmpty ? null : createDataBlock(source, gridPosition);
+		return data == null ? null : new ByteArrayDataBlock(
+				Intervals.dimensionsAsIntArray(source),
+				gridPosition,
+				data
+			);
 	}
 }
@@ -27,8 +27,10 @@
 package org.janelia.saalfeldlab.n5.imglib2;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -37,6 +39,7 @@ import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.IntFunction;
 
+import org.janelia.saalfeldlab.n5.ByteArrayDataBlock;
 import org.janelia.saalfeldlab.n5.Compression;
 import org.janelia.saalfeldlab.n5.DataBlock;
 import org.janelia.saalfeldlab.n5.DataType;
@@ -44,12 +47,15 @@ import org.janelia.saalfeldlab.n5.DatasetAttributes;
 import org.janelia.saalfeldlab.n5.N5Reader;
 import org.janelia.saalfeldlab.n5.N5Writer;
 
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
 import net.imglib2.Interval;
 import net.imglib2.IterableInterval;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.cache.Cache;
 import net.imglib2.cache.LoaderCache;
 import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.cache.img.CellLoader;
 import net.imglib2.cache.img.DiskCachedCellImgFactory;
 import net.imglib2.cache.img.DiskCachedCellImgOptions;
 import net.imglib2.cache.img.LoadedCellCacheLoader;
@@ -63,9 +69,11 @@ import net.imglib2.img.basictypeaccess.volatiles.VolatileAccess;
 import net.imglib2.img.cell.Cell;
 import net.imglib2.img.cell.CellGrid;
 import net.imglib2.img.cell.LazyCellImg;
+import net.imglib2.type.BooleanType;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.Type;
 import net.imglib2.type.label.LabelMultisetType;
+import net.imglib2.type.numeric.IntegerType;
 import net.imglib2.type.numeric.integer.ByteType;
 import net.imglib2.type.numeric.integer.IntType;
 import net.imglib2.type.numeric.integer.LongType;
@@ -378,6 +386,101 @@ public class N5Utils {
 		}
 	}
 
+	/**
+	 * Lists the grid positions of all {@link DataBlock DataBlocks}
+	 * that intersect an interval.
+	 *
+	 * @param interval
+	 * @param blockSize
+	 * @return
+	 */
+	public static List<long[]> gridPositions(final Interval interval, final int[] blockSize) {
+
+		final int n = interval.numDimensions();
+		final long[] min = new long[n];
+		final long[] max = new long[n];
+		for (int d = 0; d < n; ++d) {
+			min[d] = interval.min(d) / blockSize[d];
+			max[d] = interval.max(d) / blockSize[d];
+		}
+
+		final ArrayList<long[]> gridPositions = new ArrayList<>();
+		final long[] gridPosition = min.clone();
+		for (int d = 0; d < n;) {
+			gridPositions.add(gridPosition.clone());
+			for (d = 0; d < n; ++d) {
+				if (gridPosition[d] < max[d]) {
+					++gridPosition[d];
+					break;
+				} else
+					gridPosition[d] = min[d];
+			}
+		}
+		return gridPositions;
+	}
+
+	/**
+	 * Returns the pixel interval of a {@link DataBlock} of a grid, cropped at
+	 * the max of the grid.
+	 *
+	 * @param grid
+	 * @param gridPosition
+	 * @return
+	 */
+	static Interval blockInterval(final CellGrid grid, final long[] gridPosition) {
+
+		final int n = grid.numDimensions();
+		final long[] min = new long[n];
+		final long[] max = new long[n];
+		for (int d = 0; d < n; ++d) {
+			min[d] = gridPosition[d] * grid.cellDimension(d);
+			max[d] = Math.min(min[d] + grid.cellDimension(d), grid.imgDimension(d)) - 1;
+		}
+		return new FinalInterval(min, max);
+	}
+
+	/**
+	 * Returns the number of {@link DataBlock DataBlocks} of a given size
+	 * that cover an interval of given dimensions.
+	 *
+	 * @param dimensions
+	 * @param blockSize
+	 * @return
+	 */
+	static long numBlocks(final long[] dimensions, final int[] blockSize) {
+
+		long numBlocks = 1;
+		for (int d = 0; d < dimensions.length; ++d)
+			numBlocks *= (dimensions[d] + blockSize[d] - 1) / blockSize[d];
+		return numBlocks;
+	}
+
+	/**
+	 * Returns the uncompressed size of the data of a {@link DataBlock} in
+	 * bytes.
+	 *
+	 * @param dataBlock
+	 * @param dataType
+	 * @return
+	 */
+	static long numBytes(final DataBlock<?> dataBlock, final DataType dataType) {
+
+		switch (dataType) {
+		case INT8:
+		case UINT8:
+			return dataBlock.getNumElements();
+		case INT16:
+		case UINT16:
+			return 2L * dataBlock.getNumElements();
+		case INT32:
+		case UINT32:
+		case FLOAT32:
+			return 4L * dataBlock.getNumElements();
+		default:
+			return 8L * dataBlock.getNumElements();
+		}
+	}
+
 	/**
 	 * Open an N5 dataset as a memory cached {@link LazyCellImg}.
 	 * Supports all primitive types and {@link LabelMultisetType}.
@@ -697,6 +800,44 @@ public class N5Utils {
 		return img;
 	}
 
+	/**
+	 * Open an N5 integer label dataset as a memory cached {@link LazyCellImg}
+	 * whose values are mapped through a {@link LabelLookup} while cells are
+	 * loaded.  Swapping the table of the lookup invalidates the cached cells
+	 * without touching the dataset.  Missing blocks are loaded as label 0
+	 * before they are mapped.
+	 *
+	 * @param n5
+	 * @param dataset
+	 * @param lookup
+	 * @return
+	 * @throws IOException
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public static final <T extends NativeType<T> & IntegerType<T>, A extends ArrayDataAccess<A>> CachedCellImg<T, A> openRemapped(
+			final N5Reader n5,
+			final String dataset,
+			final LabelLookup lookup) throws IOException {
+
+		final DatasetAttributes attributes = n5.getDatasetAttributes(dataset);
+		final T type = type(attributes.getDataType());
+		if (!(type instanceof IntegerType))
+			throw new IOException(dataset + " is not an integer dataset.");
+
+		final int[] blockSize = attributes.getBlockSize();
+		final N5CellLoader<T> n5Loader = new N5CellLoader<>(n5, dataset, blockSize);
+		final CellLoader<T> loader = cell -> {
+			n5Loader.load(cell);
+			for (final T t : cell)
+				t.setInteger(lookup.applyAsLong(t.getIntegerLong()));
+		};
+
+		final CellGrid grid = new CellGrid(attributes.getDimensions(), blockSize);
+		final Cache<Long, Cell<A>> cache = new SoftRefLoaderCache<Long, Cell<A>>().withLoader(LoadedCellCacheLoader.get(grid, loader, type, AccessFlags.setOf()));
+		lookup.register(cache);
+		return new CachedCellImg(grid, type, cache, ArrayDataAccessFactory.get(type, AccessFlags.setOf()));
+	}
+
 	/**
 	 * Open an N5 dataset as a memory cached {@link LazyCellImg} using
 	 * {@link VolatileAccess}.
@@ -734,6 +875,23 @@ public class N5Utils {
 		return openWithBoundedSoftRefCache(n5, dataset, blockNotFoundHandler, maxNumCacheEntries, AccessFlags.setOf(AccessFlags.VOLATILE));
 	}
 
+	/**
+	 * Number of consecutive scale levels s0, s1, ... of an N5 mipmap
+	 * (multi-scale) group.  Other children of the group are ignored.
+	 *
+	 * @param n5
+	 * @param group
+	 * @return
+	 * @throws IOException
+	 */
+	static int numScaleLevels(final N5Reader n5, final String group) throws IOException {
+
+		int numScales = 0;
+		while (n5.datasetExists(group + "/s" + numScales))
+			++numScales;
+		return numScales;
+	}
+
 	/**
 	 * Open an N5 mipmap (multi-scale) group as memory cached
 	 * {@link LazyCellImg}s, optionally backed by {@link VolatileAccess}.
@@ -752,7 +910,7 @@ public class N5Utils {
 			final boolean useVolatileAccess,
 			final IntFunction<Consumer<IterableInterval<T>>> blockNotFoundHandlerSupplier) throws IOException {
 
-		final int numScales = n5.list(group).length;
+		final int numScales = numScaleLevels(n5, group);
 		@SuppressWarnings("unchecked")
 		final RandomAccessibleInterval<T>[] mipmaps = new RandomAccessibleInterval[numScales];
 		final double[][] scales = new double[numScales][];
@@ -882,16 +1040,41 @@ public class N5Utils {
 	 * @throws IOException
 	 */
 	public static final <T extends NativeType<T>> void saveBlock(
-			RandomAccessibleInterval<T> source,
+			final RandomAccessibleInterval<T> source,
 			final N5Writer n5,
 			final String dataset,
 			final DatasetAttributes attributes,
 			final long[] gridOffset) throws IOException {
 
+		saveBlock(source, n5, dataset, attributes, gridOffset, SaveProgressListener.NONE);
+	}
+
+	/**
+	 * Save a {@link RandomAccessibleInterval} into an N5 dataset at a given
+	 * offset. The offset is given in {@link DataBlock} grid coordinates and the
+	 * source is assumed to align with the {@link DataBlock} grid of the dataset.
+	 * Progress is reported to a {@link SaveProgressListener}.
+	 *
+	 * @param source
+	 * @param n5
+	 * @param dataset
+	 * @param attributes
+	 * @param gridOffset
+	 * @param listener
+	 * @throws IOException
+	 */
+	public static final <T extends NativeType<T>> void saveBlock(
+			RandomAccessibleInterval<T> source,
+			final N5Writer n5,
+			final String dataset,
+			final DatasetAttributes attributes,
+			final long[] gridOffset,
+			final SaveProgressListener listener) throws IOException {
+
 		if (N5LabelMultisets.isLabelMultisetType(n5, dataset)) {
 			@SuppressWarnings("unchecked")
 			final RandomAccessibleInterval<LabelMultisetType> labelMultisetSource = (RandomAccessibleInterval<LabelMultisetType>) source;
-			N5LabelMultisets.saveLabelMultisetBlock(labelMultisetSource, n5, dataset, attributes, gridOffset);
+			N5LabelMultisets.saveLabelMultisetBlock(labelMultisetSource, n5, dataset, attributes, gridOffset, listener);
 			return;
 		}
 
@@ -903,6 +1086,7 @@ public class N5Utils {
 		final int[] blockSize = attributes.getBlockSize();
 		final int[] intCroppedBlockSize = new int[n];
 		final long[] longCroppedBlockSize = new long[n];
+		listener.started(numBlocks(Intervals.dimensionsAsLongArray(source), blockSize));
 		for (int d = 0; d < n;) {
 			cropBlockDimensions(
 					max,
@@ -912,6 +1096,7 @@ public class N5Utils {
 					longCroppedBlockSize,
 					intCroppedBlockSize,
 					gridPosition);
+			final long t0 = System.nanoTime();
 			final RandomAccessibleInterval<T> sourceBlock = Views.offsetInterval(source, offset, longCroppedBlockSize);
 			final DataBlock<?> dataBlock = createDataBlock(
 					sourceBlock,
@@ -920,7 +1105,9 @@ public class N5Utils {
 					longCroppedBlockSize,
 					gridPosition);
 
+			final long t1 = System.nanoTime();
 			n5.writeBlock(dataset, attributes, dataBlock);
+			listener.blockSaved(gridPosition.clone(), numBytes(dataBlock, attributes.getDataType()), t1 - t0, System.nanoTime() - t1);
 
 			for (d = 0; d < n; ++d) {
 				offset[d] += blockSize[d];
@@ -1024,10 +1211,35 @@ public class N5Utils {
 			final long[] gridOffset,
 			final ExecutorService exec) throws IOException, InterruptedException, ExecutionException {
 
+		saveBlock(source, n5, dataset, gridOffset, exec, SaveProgressListener.NONE);
+	}
+
+	/**
+	 * Save a {@link RandomAccessibleInterval} as an N5 dataset, multi-threaded.
+	 * Progress is reported to a {@link SaveProgressListener}.
+	 *
+	 * @param source
+	 * @param n5
+	 * @param dataset
+	 * @param gridOffset
+	 * @param exec
+	 * @param listener
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public static final <T extends NativeType<T>> void saveBlock(
+			final RandomAccessibleInterval<T> source,
+			final N5Writer n5,
+			final String dataset,
+			final long[] gridOffset,
+			final ExecutorService exec,
+			final SaveProgressListener listener) throws IOException, InterruptedException, ExecutionException {
+
 		if (N5LabelMultisets.isLabelMultisetType(n5, dataset)) {
 			@SuppressWarnings("unchecked")
 			final RandomAccessibleInterval<LabelMultisetType> labelMultisetSource = (RandomAccessibleInterval<LabelMultisetType>) source;
-			N5LabelMultisets.saveLabelMultisetBlock(labelMultisetSource, n5, dataset, gridOffset, exec);
+			N5LabelMultisets.saveLabelMultisetBlock(labelMultisetSource, n5, dataset, gridOffset, exec, listener);
 			return;
 		}
 
@@ -1039,6 +1251,7 @@ public class N5Utils {
 			final long[] max = Intervals.maxAsLongArray(zeroMinSource);
 			final long[] offset = new long[n];
 			final int[] blockSize = attributes.getBlockSize();
+			listener.started(numBlocks(dimensions, blockSize));
 
 			final ArrayList<Future<?>> futures = new ArrayList<>();
 			for (int d = 0; d < n;) {
@@ -1061,6 +1274,7 @@ public class N5Utils {
 											intCroppedBlockSize,
 											gridPosition);
 
+									final long t0 = System.nanoTime();
 									final RandomAccessibleInterval<T> sourceBlock = Views
 											.offsetInterval(zeroMinSource, fOffset, longCroppedBlockSize);
 									final DataBlock<?> dataBlock = createDataBlock(
@@ -1071,7 +1285,9 @@ public class N5Utils {
 											gridPosition);
 
 									try {
+										final long t1 = System.nanoTime();
 										n5.writeBlock(dataset, attributes, dataBlock);
+										listener.blockSaved(gridPosition, numBytes(dataBlock, attributes.getDataType()), t1 - t0, System.nanoTime() - t1);
 									} catch (final IOException e) {
 										e.printStackTrace();
 									}
@@ -1248,16 +1464,39 @@ public class N5Utils {
 	 * @throws IOException
 	 */
 	public static final <T extends NativeType<T>> void save(
-			RandomAccessibleInterval<T> source,
+			final RandomAccessibleInterval<T> source,
 			final N5Writer n5,
 			final String dataset,
 			final int[] blockSize,
 			final Compression compression) throws IOException {
 
+		save(source, n5, dataset, blockSize, compression, SaveProgressListener.NONE);
+	}
+
+	/**
+	 * Save a {@link RandomAccessibleInterval} as an N5 dataset.
+	 * Progress is reported to a {@link SaveProgressListener}.
+	 *
+	 * @param source
+	 * @param n5
+	 * @param dataset
+	 * @param blockSize
+	 * @param compression
+	 * @param listener
+	 * @throws IOException
+	 */
+	public static final <T extends NativeType<T>> void save(
+			RandomAccessibleInterval<T> source,
+			final N5Writer n5,
+			final String dataset,
+			final int[] blockSize,
+			final Compression compression,
+			final SaveProgressListener listener) throws IOException {
+
 		if (Util.getTypeFromInterval(source) instanceof LabelMultisetType) {
 			@SuppressWarnings("unchecked")
 			final RandomAccessibleInterval<LabelMultisetType> labelMultisetSource = (RandomAccessibleInterval<LabelMultisetType>) source;
-			N5LabelMultisets.saveLabelMultiset(labelMultisetSource, n5, dataset, blockSize, compression);
+			N5LabelMultisets.saveLabelMultiset(labelMultisetSource, n5, dataset, blockSize, compression, listener);
 			return;
 		}
 
@@ -1277,8 +1516,10 @@ public class N5Utils {
 		final long[] gridPosition = new long[n];
 		final int[] intCroppedBlockSize = new int[n];
 		final long[] longCroppedBlockSize = new long[n];
+		listener.started(numBlocks(dimensions, blockSize));
 		for (int d = 0; d < n;) {
 			cropBlockDimensions(max, offset, blockSize, longCroppedBlockSize, intCroppedBlockSize, gridPosition);
+			final long t0 = System.nanoTime();
 			final RandomAccessibleInterval<T> sourceBlock = Views.offsetInterval(source, offset, longCroppedBlockSize);
 			final DataBlock<?> dataBlock = createDataBlock(
 					sourceBlock,
@@ -1287,7 +1528,9 @@ public class N5Utils {
 					longCroppedBlockSize,
 					gridPosition);
 
+			final long t1 = System.nanoTime();
 			n5.writeBlock(dataset, attributes, dataBlock);
+			listener.blockSaved(gridPosition.clone(), numBytes(dataBlock, attributes.getDataType()), t1 - t0, System.nanoTime() - t1);
 
 			for (d = 0; d < n; ++d) {
 				offset[d] += blockSize[d];
@@ -1320,10 +1563,37 @@ public class N5Utils {
 			final Compression compression,
 			final ExecutorService exec) throws IOException, InterruptedException, ExecutionException {
 
+		save(source, n5, dataset, blockSize, compression, exec, SaveProgressListener.NONE);
+	}
+
+	/**
+	 * Save a {@link RandomAccessibleInterval} as an N5 dataset, multi-threaded.
+	 * Progress is reported to a {@link SaveProgressListener}.
+	 *
+	 * @param source
+	 * @param n5
+	 * @param dataset
+	 * @param blockSize
+	 * @param compression
+	 * @param exec
+	 * @param listener
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public static final <T extends NativeType<T>> void save(
+			final RandomAccessibleInterval<T> source,
+			final N5Writer n5,
+			final String dataset,
+			final int[] blockSize,
+			final Compression compression,
+			final ExecutorService exec,
+			final SaveProgressListener listener) throws IOException, InterruptedException, ExecutionException {
+
 		if (Util.getTypeFromInterval(source) instanceof LabelMultisetType) {
 			@SuppressWarnings("unchecked")
 			final RandomAccessibleInterval<LabelMultisetType> labelMultisetSource = (RandomAccessibleInterval<LabelMultisetType>) source;
-			N5LabelMultisets.saveLabelMultiset(labelMultisetSource, n5, dataset, blockSize, compression, exec);
+			N5LabelMultisets.saveLabelMultiset(labelMultisetSource, n5, dataset, blockSize, compression, exec, listener);
 			return;
 		}
 
@@ -1340,6 +1610,7 @@ public class N5Utils {
 		final int n = dimensions.length;
 		final long[] max = Intervals.maxAsLongArray(zeroMinSource);
 		final long[] offset = new long[n];
+		listener.started(numBlocks(dimensions, blockSize));
 
 		final ArrayList<Future<?>> futures = new ArrayList<>();
 		for (int d = 0; d < n;) {
@@ -1361,6 +1632,7 @@ public class N5Utils {
 										intCroppedBlockSize,
 										gridPosition);
 
+								final long t0 = System.nanoTime();
 								final RandomAccessibleInterval<T> sourceBlock = Views
 										.offsetInterval(zeroMinSource, fOffset, longCroppedBlockSize);
 								final DataBlock<?> dataBlock = createDataBlock(
@@ -1371,7 +1643,9 @@ public class N5Utils {
 										gridPosition);
 
 								try {
+									final long t1 = System.nanoTime();
 									n5.writeBlock(dataset, attributes, dataBlock);
+									listener.blockSaved(gridPosition, numBytes(dataBlock, attributes.getDataType()), t1 - t0, System.nanoTime() - t1);
 								} catch (final IOException e) {
 									e.printStackTrace();
 								}
@@ -1388,4 +1662,570 @@ public class N5Utils {
 		for (final Future<?> f : futures)
 			f.get();
 	}
+
+	/**
+	 * Save only the {@link DataBlock DataBlocks} at a given set of grid
+	 * positions of a {@link RandomAccessibleInterval} into an existing N5
+	 * dataset, multi-threaded.  The source covers the entire dataset, i.e.
+	 * after {@link Views#zeroMin(RandomAccessibleInterval)}, it is in dataset
+	 * coordinates.  All other blocks of the dataset remain untouched.
+	 *
+	 * Supports all primitive types and {@link LabelMultisetType}.
+	 *
+	 * @param source
+	 * @param n5
+	 * @param dataset
+	 * @param gridPositions
+	 * @param exec
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public static final <T extends NativeType<T>> void saveBlocks(
+			final RandomAccessibleInterval<T> source,
+			final N5Writer n5,
+			final String dataset,
+			final Iterable<long[]> gridPositions,
+			final ExecutorService exec) throws IOException, InterruptedException, ExecutionException {
+
+		saveBlocks(source, n5, dataset, gridPositions, exec, SaveProgressListener.NONE);
+	}
+
+	/**
+	 * Save only the {@link DataBlock DataBlocks} at a given set of grid
+	 * positions of a {@link RandomAccessibleInterval} into an existing N5
+	 * dataset, multi-threaded.  The source covers the entire dataset, i.e.
+	 * after {@link Views#zeroMin(RandomAccessibleInterval)}, it is in dataset
+	 * coordinates.  All other blocks of the dataset remain untouched.
+	 * Progress is reported to a {@link SaveProgressListener}.
+	 *
+	 * Supports all primitive types and {@link LabelMultisetType}.
+	 *
+	 * @param source
+	 * @param n5
+	 * @param dataset
+	 * @param gridPositions
+	 * @param exec
+	 * @param listener
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public static final <T extends NativeType<T>> void saveBlocks(
+			final RandomAccessibleInterval<T> source,
+			final N5Writer n5,
+			final String dataset,
+			final Iterable<long[]> gridPositions,
+			final ExecutorService exec,
+			final SaveProgressListener listener) throws IOException, InterruptedException, ExecutionException {
+
+		final DatasetAttributes attributes = n5.getDatasetAttributes(dataset);
+		if (attributes == null)
+			throw new IOException("Dataset " + dataset + " does not exist.");
+
+		final RandomAccessibleInterval<T> zeroMinSource = Views.zeroMin(source);
+		final long[] gridDimensions = datasetGridDimensions(zeroMinSource, dataset, attributes);
+
+		final ArrayList<long[]> validGridPositions = new ArrayList<>();
+		for (final long[] gridPosition : gridPositions) {
+			if (gridPosition.length != gridDimensions.length)
+				throw new IllegalArgumentException("Grid position " + Arrays.toString(gridPosition) + " does not have " + gridDimensions.length + " dimensions.");
+			for (int d = 0; d < gridDimensions.length; ++d)
+				if (gridPosition[d] < 0 || gridPosition[d] >= gridDimensions[d])
+					throw new IllegalArgumentException("Grid position " + Arrays.toString(gridPosition) + " is outside of the source.");
+			validGridPositions.add(gridPosition);
+		}
+
+		if (Util.getTypeFromInterval(zeroMinSource) instanceof LabelMultisetType)
+			LabelCounts.invalidate(n5, dataset);
+
+		listener.started(validGridPositions.size());
+		for (final Future<?> f : submitBlocks(zeroMinSource, n5, dataset, attributes, validGridPositions, LabelBlockIndex.openWriter(n5, dataset), exec, listener))
+			f.get();
+	}
+
+	/**
+	 * Save only the {@link DataBlock DataBlocks} of a
+	 * {@link RandomAccessibleInterval} that are selected by a block mask into
+	 * an existing N5 dataset, multi-threaded.  The block mask is defined on the
+	 * {@link DataBlock} grid of the dataset, i.e. each of its pixels
+	 * corresponds to one block.  The source covers the entire dataset, i.e.
+	 * after {@link Views#zeroMin(RandomAccessibleInterval)}, it is in dataset
+	 * coordinates.  All other blocks of the dataset remain untouched.
+	 *
+	 * Supports all primitive types and {@link LabelMultisetType}.
+	 *
+	 * @param source
+	 * @param n5
+	 * @param dataset
+	 * @param blockMask
+	 * @param exec
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public static final <T extends NativeType<T>, B extends BooleanType<B>> void saveMaskedBlocks(
+			final RandomAccessibleInterval<T> source,
+			final N5Writer n5,
+			final String dataset,
+			final RandomAccessibleInterval<B> blockMask,
+			final ExecutorService exec) throws IOException, InterruptedException, ExecutionException {
+
+		saveMaskedBlocks(source, n5, dataset, blockMask, exec, SaveProgressListener.NONE);
+	}
+
+	/**
+	 * Save only the {@link DataBlock DataBlocks} of a
+	 * {@link RandomAccessibleInterval} that are selected by a block mask into
+	 * an existing N5 dataset, multi-threaded.  The block mask is defined on the
+	 * {@link DataBlock} grid of the dataset, i.e. each of its pixels
+	 * corresponds to one block.  The source covers the entire dataset, i.e.
+	 * after {@link Views#zeroMin(RandomAccessibleInterval)}, it is in dataset
+	 * coordinates.  All other blocks of the dataset remain untouched.
+	 * Progress is reported to a {@link SaveProgressListener}.
+	 *
+	 * Supports all primitive types and {@link LabelMultisetType}.
+	 *
+	 * @param source
+	 * @param n5
+	 * @param dataset
+	 * @param blockMask
+	 * @param exec
+	 * @param listener
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public static final <T extends NativeType<T>, B extends BooleanType<B>> void saveMaskedBlocks(
+			final RandomAccessibleInterval<T> source,
+			final N5Writer n5,
+			final String dataset,
+			final RandomAccessibleInterval<B> blockMask,
+			final ExecutorService exec,
+			final SaveProgressListener listener) throws IOException, InterruptedException, ExecutionException {
+
+		final DatasetAttributes attributes = n5.getDatasetAttributes(dataset);
+		if (attributes == null)
+			throw new IOException("Dataset " + dataset + " does not exist.");
+
+		final long[] gridDimensions = datasetGridDimensions(Views.zeroMin(source), dataset, attributes);
+		if (!Arrays.equals(Intervals.dimensionsAsLongArray(blockMask), gridDimensions))
+			throw new IllegalArgumentException(
+					"Block mask dimensions " + Arrays.toString(Intervals.dimensionsAsLongArray(blockMask)) +
+					" differ from the block grid dimensions " + Arrays.toString(gridDimensions) + " of dataset " + dataset + ".");
+
+		final ArrayList<long[]> gridPositions = new ArrayList<>();
+		final Cursor<B> cursor = Views.flatIterable(Views.zeroMin(blockMask)).localizingCursor();
+		while (cursor.hasNext()) {
+			if (cursor.next().get()) {
+				final long[] gridPosition = new long[cursor.numDimensions()];
+				cursor.localize(gridPosition);
+				gridPositions.add(gridPosition);
+			}
+		}
+		saveBlocks(source, n5, dataset, gridPositions, exec, listener);
+	}
+
+	/**
+	 * Returns the block grid dimensions of an existing dataset after checking
+	 * that a source in dataset coordinates covers the entire dataset.
+	 *
+	 * @param source
+	 * @param dataset
+	 * @param attributes
+	 * @return
+	 */
+	private static long[] datasetGridDimensions(
+			final RandomAccessibleInterval<?> source,
+			final String dataset,
+			final DatasetAttributes attributes) {
+
+		final long[] dimensions = Intervals.dimensionsAsLongArray(source);
+		if (!Arrays.equals(dimensions, attributes.getDimensions()))
+			throw new IllegalArgumentException(
+					"Source dimensions " + Arrays.toString(dimensions) +
+					" differ from the dimensions " + Arrays.toString(attributes.getDimensions()) + " of dataset " + dataset + ".");
+
+		return new CellGrid(dimensions, attributes.getBlockSize()).getGridDimensions();
+	}
+
+	/**
+	 * Submits one task per grid position that saves the {@link DataBlock} at
+	 * this grid position, i.e. the intersection of the block with the source,
+	 * into an existing N5 dataset.  The source is expected in dataset
+	 * coordinates, i.e. with min 0.  Returns the {@link Future Futures} of all
+	 * tasks without waiting for them.
+	 *
+	 * @param source
+	 * @param n5
+	 * @param dataset
+	 * @param attributes
+	 * @param gridPositions
+	 * @param labelBlockIndex updated for {@link LabelMultisetType} sources
+	 * @param exec
+	 * @param listener
+	 * @return
+	 */
+	static <T extends NativeType<T>> ArrayList<Future<?>> submitBlocks(
+			final RandomAccessibleInterval<T> source,
+			final N5Writer n5,
+			final String dataset,
+			final DatasetAttributes attributes,
+			final Iterable<long[]> gridPositions,
+			final LabelBlockIndex.Writer labelBlockIndex,
+			final ExecutorService exec,
+			final SaveProgressListener listener) {
+
+		final boolean isLabelMultiset = Util.getTypeFromInterval(source) instanceof LabelMultisetType;
+		final int n = source.numDimensions();
+		final long[] max = Intervals.maxAsLongArray(source);
+		final int[] blockSize = attributes.getBlockSize();
+
+		final ArrayList<Future<?>> futures = new ArrayList<>();
+		for (final long[] gridPosition : gridPositions) {
+			futures.add(
+					exec.submit(
+							() -> {
+
+								final long[] offset = new long[n];
+								final int[] intCroppedBlockSize = new int[n];
+								final long[] longCroppedBlockSize = new long[n];
+								final long[] croppedGridPosition = new long[n];
+								Arrays.setAll(offset, d -> gridPosition[d] * blockSize[d]);
+
+								cropBlockDimensions(
+										max,
+										offset,
+										blockSize,
+										longCroppedBlockSize,
+										intCroppedBlockSize,
+										croppedGridPosition);
+
+								final long t0 = System.nanoTime();
+								final RandomAccessibleInterval<T> sourceBlock = Views.offsetInterval(source, offset, longCroppedBlockSize);
+								final DataBlock<?> dataBlock;
+								if (isLabelMultiset) {
+									@SuppressWarnings("unchecked")
+									final RandomAccessibleInterval<LabelMultisetType> labelMultisetSourceBlock = (RandomAccessibleInterval<LabelMultisetType>)sourceBlock;
+									dataBlock = N5LabelMultisets.createDataBlock(labelMultisetSourceBlock, gridPosition);
+								} else
+									dataBlock = createDataBlock(
+											sourceBlock,
+											attributes.getDataType(),
+											intCroppedBlockSize,
+											longCroppedBlockSize,
+											gridPosition);
+
+								final long t1 = System.nanoTime();
+								n5.writeBlock(dataset, attributes, dataBlock);
+								if (isLabelMultiset)
+									labelBlockIndex.write((ByteArrayDataBlock)dataBlock);
+								listener.blockSaved(gridPosition, numBytes(dataBlock, attributes.getDataType()), t1 - t0, System.nanoTime() - t1);
+								return null;
+							}));
+		}
+		return futures;
+	}
+
+	/**
+	 * Creates the N5 dataset for a {@link RandomAccessibleInterval} without
+	 * writing any {@link DataBlock DataBlocks}.  Supports all primitive types
+	 * and {@link LabelMultisetType}.
+	 *
+	 * @param source
+	 * @param n5
+	 * @param dataset
+	 * @param blockSize
+	 * @param compression
+	 * @return the {@link DatasetAttributes} of the new dataset
+	 * @throws IOException
+	 */
+	public static final <T extends NativeType<T>> DatasetAttributes createDataset(
+			final RandomAccessibleInterval<T> source,
+			final N5Writer n5,
+			final String dataset,
+			final int[] blockSize,
+			final Compression compression) throws IOException {
+
+		final DatasetAttributes attributes = createDatasetAttributes(source, blockSize, compression);
+		n5.createDataset(dataset, attributes);
+		if (Util.getTypeFromInterval(source) instanceof LabelMultisetType) {
+			n5.setAttribute(dataset, N5LabelMultisets.LABEL_MULTISETTYPE_KEY, true);
+			LabelBlockIndex.reset(n5, dataset, attributes);
+			LabelCounts.invalidate(n5, dataset);
+		}
+
+		return attributes;
+	}
+
+	/**
+	 * Creates the {@link DatasetAttributes} for saving a
+	 * {@link RandomAccessibleInterval} without touching any container.
+	 * Supports all primitive types and {@link LabelMultisetType}.
+	 *
+	 * @param source
+	 * @param blockSize
+	 * @param compression
+	 * @return
+	 */
+	public static final <T extends NativeType<T>> DatasetAttributes createDatasetAttributes(
+			final RandomAccessibleInterval<T> source,
+			final int[] blockSize,
+			final Compression compression) {
+
+		final T type = Util.getTypeFromInterval(source);
+		return new DatasetAttributes(
+				Intervals.dimensionsAsLongArray(source),
+				blockSize,
+				type instanceof LabelMultisetType ? DataType.UINT8 : dataType(type),
+				compression);
+	}
+
+	/**
+	 * Splits the {@link DataBlock} grid of a dataset with given dimensions and
+	 * block size into a number of partitions and returns the grid positions
+	 * of one of them.  Grid positions are sorted along a Z-order curve and
+	 * the partitions are contiguous, nearly equally sized ranges of this
+	 * order, so every partition is a compact region of the grid.  The
+	 * partitioning is deterministic, i.e. independent processes that ask for
+	 * different partitions of the same grid cover every block exactly once.
+	 *
+	 * @param dimensions
+	 * @param blockSize
+	 * @param partition index of the partition in [0, numPartitions)
+	 * @param numPartitions
+	 * @return
+	 */
+	public static List<long[]> gridPositionsPartition(
+			final long[] dimensions,
+			final int[] blockSize,
+			final int partition,
+			final int numPartitions) {
+
+		if (partition < 0 || partition >= numPartitions)
+			throw new IllegalArgumentException("Partition " + partition + " is not in [0, " + numPartitions + ").");
+
+		final List<long[]> gridPositions = gridPositions(new FinalInterval(dimensions), blockSize);
+		gridPositions.sort(N5Utils::compareZOrder);
+
+		final long numBlocks = gridPositions.size();
+		final int from = (int)(partition * numBlocks / numPartitions);
+		final int to = (int)((partition + 1) * numBlocks / numPartitions);
+		return new ArrayList<>(gridPositions.subList(from, to));
+	}
+
+	/**
+	 * Compares two non-negative grid positions by their position along a
+	 * Z-order (Morton) curve without computing the interleaved keys.
+	 *
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	static int compareZOrder(final long[] a, final long[] b) {
+
+		int msd = 0;
+		long msb = 0;
+		for (int d = 0; d < a.length; ++d) {
+			final long x = a[d] ^ b[d];
+			if (msb < x && msb < (msb ^ x)) {
+				msd = d;
+				msb = x;
+			}
+		}
+		return Long.compare(a[msd], b[msd]);
+	}
+
+	/**
+	 * Save one partition of the {@link DataBlock DataBlocks} of a
+	 * {@link RandomAccessibleInterval} as an N5 dataset, multi-threaded.
+	 * This is meant for exports that are distributed over several processes
+	 * writing into the same container: each process saves one partition as
+	 * defined by
+	 * {@link #gridPositionsPartition(long[], int[], int, int)}, and the
+	 * dataset attributes are written once by
+	 * {@link #createDataset(RandomAccessibleInterval, N5Writer, String, int[], Compression)},
+	 * before or after all partitions were saved.  This method does not create
+	 * or modify the dataset attributes.
+	 *
+	 * Supports all primitive types and {@link LabelMultisetType}.
+	 *
+	 * @param source
+	 * @param n5
+	 * @param dataset
+	 * @param blockSize
+	 * @param compression
+	 * @param partition
+	 * @param numPartitions
+	 * @param exec
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public static final <T extends NativeType<T>> void savePartition(
+			final RandomAccessibleInterval<T> source,
+			final N5Writer n5,
+			final String dataset,
+			final int[] blockSize,
+			final Compression compression,
+			final int partition,
+			final int numPartitions,
+			final ExecutorService exec) throws InterruptedException, ExecutionException {
+
+		savePartition(source, n5, dataset, blockSize, compression, partition, numPartitions, exec, SaveProgressListener.NONE);
+	}
+
+	/**
+	 * Save one partition of the {@link DataBlock DataBlocks} of a
+	 * {@link RandomAccessibleInterval} as an N5 dataset, multi-threaded.
+	 * This is meant for exports that are distributed over several processes
+	 * writing into the same container: each process saves one partition as
+	 * defined by
+	 * {@link #gridPositionsPartition(long[], int[], int, int)}, and the
+	 * dataset attributes are written once by
+	 * {@link #createDataset(RandomAccessibleInterval, N5Writer, String, int[], Compression)},
+	 * before or after all partitions were saved.  This method does not create
+	 * or modify the dataset attributes and does not update a
+	 * {@link LabelBlockIndex}, which can be created with
+	 * {@link LabelBlockIndex#create(N5Writer, String)} after all partitions
+	 * were saved.  Progress is reported to a {@link SaveProgressListener}.
+	 *
+	 * Supports all primitive types and {@link LabelMultisetType}.
+	 *
+	 * @param source
+	 * @param n5
+	 * @param dataset
+	 * @param blockSize
+	 * @param compression
+	 * @param partition
+	 * @param numPartitions
+	 * @param exec
+	 * @param listener
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public static final <T extends NativeType<T>> void savePartition(
+			final RandomAccessibleInterval<T> source,
+			final N5Writer n5,
+			final String dataset,
+			final int[] blockSize,
+			final Compression compression,
+			final int partition,
+			final int numPartitions,
+			final ExecutorService exec,
+			final SaveProgressListener listener) throws InterruptedException, ExecutionException {
+
+		final RandomAccessibleInterval<T> zeroMinSource = Views.zeroMin(source);
+		final DatasetAttributes attributes = createDatasetAttributes(zeroMinSource, blockSize, compression);
+		final List<long[]> gridPositions = gridPositionsPartition(attributes.getDimensions(), blockSize, partition, numPartitions);
+
+		listener.started(gridPositions.size());
+		for (final Future<?> f : submitBlocks(zeroMinSource, n5, dataset, attributes, gridPositions, LabelBlockIndex.Writer.NONE, exec, listener))
+			f.get();
+	}
+
+	/**
+	 * Save a {@link RandomAccessibleInterval} as an N5 dataset, multi-threaded
+	 * and resumable.  The grid positions of all completed
+	 * {@link DataBlock DataBlocks} are recorded in a {@link BlockJournal} at
+	 * journalPath, typically a file inside the container.  If the save is
+	 * interrupted, calling this method again with the same journal skips all
+	 * blocks that were already written and keeps the existing dataset and its
+	 * {@link LabelBlockIndex}.  The journal is removed after the save
+	 * completed successfully.
+	 *
+	 * Supports all primitive types and {@link LabelMultisetType}.
+	 *
+	 * @param source
+	 * @param n5
+	 * @param dataset
+	 * @param blockSize
+	 * @param compression
+	 * @param journalPath
+	 * @param exec
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public static final <T extends NativeType<T>> void saveResumable(
+			final RandomAccessibleInterval<T> source,
+			final N5Writer n5,
+			final String dataset,
+			final int[] blockSize,
+			final Compression compression,
+			final Path journalPath,
+			final ExecutorService exec) throws IOException, InterruptedException, ExecutionException {
+
+		saveResumable(source, n5, dataset, blockSize, compression, journalPath, exec, SaveProgressListener.NONE);
+	}
+
+	/**
+	 * Save a {@link RandomAccessibleInterval} as an N5 dataset, multi-threaded
+	 * and resumable.  The grid positions of all completed
+	 * {@link DataBlock DataBlocks} are recorded in a {@link BlockJournal} at
+	 * journalPath, typically a file inside the container.  If the save is
+	 * interrupted, calling this method again with the same journal skips all
+	 * blocks that were already written and keeps the existing dataset and its
+	 * {@link LabelBlockIndex}.  The journal is removed after the save
+	 * completed successfully.  Progress of the remaining blocks is reported to
+	 * a {@link SaveProgressListener}.
+	 *
+	 * Supports all primitive types and {@link LabelMultisetType}.
+	 *
+	 * @param source
+	 * @param n5
+	 * @param dataset
+	 * @param blockSize
+	 * @param compression
+	 * @param journalPath
+	 * @param exec
+	 * @param listener
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public static final <T extends NativeType<T>> void saveResumable(
+			final RandomAccessibleInterval<T> source,
+			final N5Writer n5,
+			final String dataset,
+			final int[] blockSize,
+			final Compression compression,
+			final Path journalPath,
+			final ExecutorService exec,
+			final SaveProgressListener listener) throws IOException, InterruptedException, ExecutionException {
+
+		final RandomAccessibleInterval<T> zeroMinSource = Views.zeroMin(source);
+		final long[] gridDimensions = new CellGrid(Intervals.dimensionsAsLongArray(zeroMinSource), blockSize).getGridDimensions();
+
+		final BlockJournal journal = BlockJournal.open(journalPath, gridDimensions);
+		try {
+			/*
+			 * when resuming, keep the existing dataset, re-creating it would
+			 * reset the label block index of the blocks that are skipped
+			 */
+			final DatasetAttributes attributes;
+			if (journal.size() > 0 && n5.datasetExists(dataset)) {
+				attributes = n5.getDatasetAttributes(dataset);
+				if (!Arrays.equals(attributes.getDimensions(), Intervals.dimensionsAsLongArray(zeroMinSource)) ||
+						!Arrays.equals(attributes.getBlockSize(), blockSize))
+					throw new IOException("Existing dataset " + dataset + " does not match the source of the resumed save.");
+			} else
+				attributes = createDataset(zeroMinSource, n5, dataset, blockSize, compression);
+
+			final ArrayList<long[]> gridPositions = new ArrayList<>();
+			for (final long[] gridPosition : gridPositions(zeroMinSource, blockSize))
+				if (!journal.contains(gridPosition))
+					gridPositions.add(gridPosition);
+
+			listener.started(gridPositions.size());
+			final SaveProgressListener journalingListener = (gridPosition, numBytes, encodeNanos, writeNanos) -> {
+				journal.blockSaved(gridPosition, numBytes, encodeNanos, writeNanos);
+				listener.blockSaved(gridPosition, numBytes, encodeNanos, writeNanos);
+			};
+			for (final Future<?> f : submitBlocks(zeroMinSource, n5, dataset, attributes, gridPositions, LabelBlockIndex.openWriter(n5, dataset), exec, journalingListener))
+				f.get();
+		} finally {
+			journal.close();
+		}
+		journal.delete();
+	}
 }
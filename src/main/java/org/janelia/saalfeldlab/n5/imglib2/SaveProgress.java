@@ -0,0 +1,188 @@
+/**
+ * Copyright (c) 2017-2018, Stephan Saalfeld, Philipp Hanslovsky, Igor Pisarev
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5.imglib2;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link SaveProgressListener} that accumulates the number of saved
+ * blocks, bytes, encode and write time, and tracks the throughput over
+ * a rolling window of the most recently saved blocks.  All getters can be
+ * polled from other threads while a save is running.
+ */
+public class SaveProgress implements SaveProgressListener {
+
+	private final AtomicLong numBlocks = new AtomicLong();
+
+	private final AtomicLong numBlocksSaved = new AtomicLong();
+
+	private final AtomicLong numBytes = new AtomicLong();
+
+	private final AtomicLong encodeNanos = new AtomicLong();
+
+	private final AtomicLong writeNanos = new AtomicLong();
+
+	private volatile long startNanos = System.nanoTime();
+
+	/* ring buffer of (time, bytes) samples for the rolling throughput */
+	private final long[] windowNanos;
+
+	private final long[] windowBytes;
+
+	private int windowIndex = 0;
+
+	private int windowFill = 0;
+
+	public SaveProgress(final int windowSize) {
+
+		windowNanos = new long[windowSize];
+		windowBytes = new long[windowSize];
+	}
+
+	public SaveProgress() {
+
+		this(64);
+	}
+
+	@Override
+	public void started(final long numBlocks) {
+
+		this.numBlocks.addAndGet(numBlocks);
+		if (numBlocksSaved.get() == 0)
+			startNanos = System.nanoTime();
+	}
+
+	@Override
+	public void blockSaved(final long[] gridPosition, final long numBytes, final long encodeNanos, final long writeNanos) {
+
+		numBlocksSaved.incrementAndGet();
+		this.numBytes.addAndGet(numBytes);
+		this.encodeNanos.addAndGet(encodeNanos);
+		this.writeNanos.addAndGet(writeNanos);
+
+		synchronized (windowNanos) {
+			windowNanos[windowIndex] = System.nanoTime();
+			windowBytes[windowIndex] = numBytes;
+			windowIndex = (windowIndex + 1) % windowNanos.length;
+			windowFill = Math.min(windowFill + 1, windowNanos.length);
+		}
+	}
+
+	/**
+	 * @return the total number of blocks announced by all save calls so far
+	 */
+	public long getNumBlocks() {
+
+		return numBlocks.get();
+	}
+
+	public long getNumBlocksSaved() {
+
+		return numBlocksSaved.get();
+	}
+
+	/**
+	 * @return uncompressed bytes written
+	 */
+	public long getNumBytes() {
+
+		return numBytes.get();
+	}
+
+	/**
+	 * @return encode time summed over all threads in nanoseconds
+	 */
+	public long getEncodeNanos() {
+
+		return encodeNanos.get();
+	}
+
+	/**
+	 * @return write (compression and I/O) time summed over all threads in
+	 *         nanoseconds
+	 */
+	public long getWriteNanos() {
+
+		return writeNanos.get();
+	}
+
+	/**
+	 * @return fraction of saved blocks, in [0, 1]
+	 */
+	public double getProgress() {
+
+		final long n = numBlocks.get();
+		return n == 0 ? 0 : (double)numBlocksSaved.get() / n;
+	}
+
+	/**
+	 * @return average throughput since the start in uncompressed bytes per second
+	 */
+	public double getThroughput() {
+
+		final long elapsed = System.nanoTime() - startNanos;
+		return elapsed == 0 ? 0 : numBytes.get() * 1e9 / elapsed;
+	}
+
+	/**
+	 * @return throughput over the most recently saved blocks in
+	 *         uncompressed bytes per second
+	 */
+	public double getRollingThroughput() {
+
+		synchronized (windowNanos) {
+			if (windowFill < 2)
+				return getThroughput();
+
+			final int last = (windowIndex + windowNanos.length - 1) % windowNanos.length;
+			final int first = (windowIndex + windowNanos.length - windowFill) % windowNanos.length;
+			final long elapsed = windowNanos[last] - windowNanos[first];
+			if (elapsed <= 0)
+				return getThroughput();
+
+			/* bytes of the first sample were written before the window started */
+			long bytes = 0;
+			for (int i = 1; i < windowFill; ++i)
+				bytes += windowBytes[(first + i) % windowNanos.length];
+			return bytes * 1e9 / elapsed;
+		}
+	}
+
+	@Override
+	public String toString() {
+
+		return String.format(
+				"%d/%d blocks, %d bytes, encode %.3fs, write %.3fs, %.1f MB/s (rolling %.1f MB/s)",
+				getNumBlocksSaved(),
+				getNumBlocks(),
+				getNumBytes(),
+				getEncodeNanos() * 1e-9,
+				getWriteNanos() * 1e-9,
+				getThroughput() * 1e-6,
+				getRollingThroughput() * 1e-6);
+	}
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright (c) 2017-2018, Stephan Saalfeld, Philipp Hanslovsky, Igor Pisarev
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5.imglib2;
+
+/**
+ * Receives progress notifications from the save methods in {@link N5Utils}
+ * and {@link N5LabelMultisets}.  Multi-threaded save methods call
+ * {@link #blockSaved(long[], long, long, long)} concurrently from the
+ * worker threads, implementations must therefore be thread-safe.
+ */
+@FunctionalInterface
+public interface SaveProgressListener {
+
+	/**
+	 * A listener that ignores all notifications.
+	 */
+	public static final SaveProgressListener NONE = (gridPosition, numBytes, encodeNanos, writeNanos) -> {};
+
+	/**
+	 * Called once before the first block is saved.
+	 *
+	 * @param numBlocks the total number of blocks that will be saved
+	 */
+	public default void started(final long numBlocks) {}
+
+	/**
+	 * Called after a block was written.
+	 *
+	 * @param gridPosition
+	 * @param numBytes the uncompressed size of the block data in bytes
+	 * @param encodeNanos time spent copying or serializing the source into the block
+	 * @param writeNanos time spent in {@link org.janelia.saalfeldlab.n5.N5Writer#writeBlock}, i.e. compression and I/O
+	 */
+	public void blockSaved(long[] gridPosition, long numBytes, long encodeNanos, long writeNanos);
+}
@@ -0,0 +1,520 @@
+/**
+ * Copyright (c) 2017-2018, Stephan Saalfeld, Philipp Hanslovsky, Igor Pisarev
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5.imglib2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.GzipCompression;
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.interpolation.randomaccess.NLinearInterpolatorFactory;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.realtransform.ExplicitInvertibleRealTransform;
+import net.imglib2.realtransform.RealTransform;
+import net.imglib2.realtransform.RealTransformSequence;
+import net.imglib2.type.numeric.integer.ByteType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.IntervalIndexer;
+import net.imglib2.view.Views;
+
+public class N5DisplacementFieldTest {
+
+	static private String testDirPath = System.getProperty("user.home") + "/tmp/n5-imglib2-dfield-test";
+
+	static private long[] dimensions = new long[]{10, 12, 14, 3};
+
+	static private int[] blockSize = new int[]{3, 4, 5, 6};
+
+	static private ArrayImg<FloatType, FloatArray> dfield;
+
+	static private N5Writer n5;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+
+		final File testDir = new File(testDirPath);
+		testDir.mkdirs();
+		if (!(testDir.exists() && testDir.isDirectory()))
+			throw new IOException("Could not create test directory for N5DisplacementField test.");
+
+		n5 = new N5FSWriter(testDirPath);
+
+		final Random rnd = new Random(42);
+		dfield = ArrayImgs.floats(dimensions);
+		for (final FloatType t : dfield)
+			t.set((rnd.nextFloat() - 0.5f) * 2000);
+	}
+
+	@AfterClass
+	public static void rampDownAfterClass() throws Exception {
+
+		n5.remove("");
+	}
+
+	@Test
+	public void testPlanQuantization() throws Exception {
+
+		final double maxError = 0.5;
+		final ExecutorService exec = Executors.newFixedThreadPool(4);
+
+		final double[] minMax = N5DisplacementField.getMinMax(dfield, blockSize, exec);
+		Assert.assertArrayEquals(N5DisplacementField.getMinMax(dfield), minMax, 0);
+
+		final N5DisplacementField.Quantization<?> quantization = N5DisplacementField.saveQuantized(
+				n5,
+				"quantized",
+				dfield,
+				blockSize,
+				new GzipCompression(),
+				maxError,
+				exec);
+		exec.shutdown();
+
+		Assert.assertTrue(quantization.getType() instanceof ShortType);
+		Assert.assertEquals(DataType.INT16, n5.getDatasetAttributes("quantized").getDataType());
+
+		final RandomAccessibleInterval<FloatType> opened = N5DisplacementField.openField(n5, "quantized", new FloatType());
+		final Iterator<FloatType> expectedIterator = Views.flatIterable(dfield).iterator();
+		final Iterator<FloatType> actualIterator = Views.flatIterable(opened).iterator();
+		while (expectedIterator.hasNext())
+			Assert.assertEquals(expectedIterator.next().get(), actualIterator.next().get(), quantization.getMultiplier() / 2 + 1e-3);
+	}
+
+	@Test
+	public void testSaveConcurrent() throws Exception {
+
+		final ArrayImg<FloatType, FloatArray> inverseField = ArrayImgs.floats(dimensions);
+		final Random rnd = new Random(5);
+		for (final FloatType t : inverseField)
+			t.set((rnd.nextFloat() - 0.5f) * 20);
+
+		final AffineTransform3D affine = new AffineTransform3D();
+		affine.translate(1, 2, 3);
+		final double[] spacing = new double[]{1, 1, 1};
+
+		final ExecutorService exec = Executors.newFixedThreadPool(4);
+		N5DisplacementField.save(n5, affine, dfield, spacing, inverseField, spacing, blockSize, new GzipCompression(), exec, true);
+		exec.shutdown();
+
+		assertFieldEquals(dfield, N5DisplacementField.openField(n5, N5DisplacementField.FORWARD_ATTR, new FloatType()));
+		assertFieldEquals(inverseField, N5DisplacementField.openField(n5, N5DisplacementField.INVERSE_ATTR, new FloatType()));
+		Assert.assertArrayEquals(
+				affine.inverse().getRowPackedCopy(),
+				N5DisplacementField.openAffine(n5, N5DisplacementField.INVERSE_ATTR).getRowPackedCopy(),
+				1e-9);
+
+		final ExplicitInvertibleRealTransform transform = N5DisplacementField.openInvertible(n5);
+		final RealTransform forward = N5DisplacementField.open(n5, N5DisplacementField.FORWARD_ATTR, false);
+		final RealTransform inverse = N5DisplacementField.open(n5, N5DisplacementField.INVERSE_ATTR, true);
+		final double[] source = new double[3];
+		final double[] expected = new double[3];
+		final double[] actual = new double[3];
+		for (int i = 0; i < 100; ++i) {
+			for (int d = 0; d < 3; ++d)
+				source[d] = rnd.nextDouble() * dimensions[d];
+			forward.apply(source, expected);
+			transform.apply(source, actual);
+			Assert.assertArrayEquals(expected, actual, 1e-3);
+			inverse.apply(source, expected);
+			transform.applyInverse(actual, source);
+			Assert.assertArrayEquals(expected, actual, 1e-3);
+		}
+	}
+
+	private static void assertFieldEquals(final RandomAccessibleInterval<FloatType> expected, final RandomAccessibleInterval<FloatType> actual) {
+
+		final Iterator<FloatType> expectedIterator = Views.flatIterable(expected).iterator();
+		final Iterator<FloatType> actualIterator = Views.flatIterable(actual).iterator();
+		while (expectedIterator.hasNext())
+			Assert.assertEquals(expectedIterator.next().get(), actualIterator.next().get(), 0);
+	}
+
+	@Test
+	public void testSaveQuantizedPerBlock() throws Exception {
+
+		/* smooth field with large displacements in the blocks at x < 4 */
+		final ArrayImg<FloatType, FloatArray> field = ArrayImgs.floats(dimensions);
+		final Random rnd = new Random(7);
+		final Cursor<FloatType> cursor = field.localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			final float scale = cursor.getLongPosition(0) < 4 ? 2000 : 10;
+			cursor.get().set((rnd.nextFloat() - 0.5f) * scale);
+		}
+
+		final double maxError = 0.5;
+		final ExecutorService exec = Executors.newFixedThreadPool(4);
+		final double achievedMaxError = N5DisplacementField.saveQuantizedPerBlock(n5, "perBlock", field, blockSize, new GzipCompression(), new ByteType(), maxError, exec);
+		try {
+			N5DisplacementField.saveQuantizedPerBlock(n5, "perBlockUnsigned", field, blockSize, new GzipCompression(), new UnsignedByteType(), maxError, exec);
+			Assert.fail("Unsigned output types must be rejected.");
+		} catch (final IllegalArgumentException e) {}
+		exec.shutdown();
+
+		/* one multiplier per block of the vector first field */
+		final double[] multipliers = n5.getAttribute("perBlock", N5DisplacementField.MULTIPLIERS_ATTR, double[].class);
+		Assert.assertArrayEquals(
+				new long[]{1, 3, 3, 3},
+				new CellGrid(n5.getDatasetAttributes("perBlock").getDimensions(), blockSize).getGridDimensions());
+		Assert.assertEquals(27, multipliers.length);
+
+		/* the blocks at x < 4 do not fit bytes at maxError, which is reported */
+		final double[] maxErrors = n5.getAttribute("perBlock", N5DisplacementField.MAX_ERRORS_ATTR, double[].class);
+		Assert.assertEquals(27, maxErrors.length);
+		Assert.assertTrue(achievedMaxError > maxError);
+		Assert.assertEquals(Arrays.stream(maxErrors).max().getAsDouble(), achievedMaxError, 0);
+		for (int i = 0; i < maxErrors.length; ++i) {
+			final long[] gridPosition = new long[4];
+			IntervalIndexer.indexToPosition(i, new long[]{1, 3, 3, 3}, gridPosition);
+			if (gridPosition[1] == 0)
+				Assert.assertTrue(maxErrors[i] > maxError);
+			else
+				Assert.assertEquals(maxError, maxErrors[i], 0);
+		}
+
+		final RandomAccessibleInterval<FloatType> opened = N5DisplacementField.openField(n5, "perBlock", new FloatType());
+		final double smoothError = Math.sqrt(maxError * maxError / 3);
+		final double coarseError = 1000.0 / Byte.MAX_VALUE / 2;
+		final Cursor<FloatType> expectedCursor = Views.flatIterable(field).localizingCursor();
+		final Cursor<FloatType> actualCursor = Views.flatIterable(opened).cursor();
+		while (expectedCursor.hasNext()) {
+			final double expected = expectedCursor.next().get();
+			final double actual = actualCursor.next().get();
+			final double tolerance = expectedCursor.getLongPosition(0) < 4 ? coarseError : smoothError;
+			Assert.assertEquals(expected, actual, tolerance + 1e-3);
+		}
+
+		/* overwriting with a single multiplier drops the per block attributes */
+		final ExecutorService overwriteExec = Executors.newFixedThreadPool(4);
+		N5DisplacementField.saveQuantized(n5, "perBlock", field, blockSize, new GzipCompression(), new ShortType(), maxError, overwriteExec);
+		overwriteExec.shutdown();
+		Assert.assertNull(n5.getAttribute("perBlock", N5DisplacementField.MULTIPLIERS_ATTR, double[].class));
+		Assert.assertNull(n5.getAttribute("perBlock", N5DisplacementField.MAX_ERRORS_ATTR, double[].class));
+		final Iterator<FloatType> expectedIterator = Views.flatIterable(field).iterator();
+		final Iterator<FloatType> actualIterator = Views.flatIterable(N5DisplacementField.openField(n5, "perBlock", new FloatType())).iterator();
+		while (expectedIterator.hasNext())
+			Assert.assertEquals(expectedIterator.next().get(), actualIterator.next().get(), smoothError + 1e-3);
+	}
+
+	@Test
+	public void testDisplacementFieldTransform() throws Exception {
+
+		final ArrayImg<FloatType, FloatArray> field = ArrayImgs.floats(dimensions);
+		final Random rnd = new Random(11);
+		for (final FloatType t : field)
+			t.set((rnd.nextFloat() - 0.5f) * 20);
+
+		final AffineTransform3D affine = new AffineTransform3D();
+		affine.set(
+				1.1, 0.1, 0.0, 3.0,
+				-0.2, 0.9, 0.05, -2.0,
+				0.0, 0.1, 1.2, 1.5);
+		final double[] spacing = new double[]{0.5, 1.5, 2.0};
+		N5DisplacementField.save(n5, "transform", affine, field, spacing, blockSize, new GzipCompression());
+
+		for (final boolean inverse : new boolean[]{false, true}) {
+			final RealTransform expectedTransform = N5DisplacementField.open(n5, "transform", inverse);
+			final RealTransform transform = N5DisplacementFieldTransform.open(n5, "transform", inverse).copy();
+			Assert.assertEquals(3, transform.numSourceDimensions());
+
+			final double[] source = new double[3];
+			final double[] expected = new double[3];
+			final double[] actual = new double[3];
+			for (int i = 0; i < 1000; ++i) {
+				/* cover the border extension outside of the field */
+				for (int d = 0; d < 3; ++d)
+					source[d] = (rnd.nextDouble() * 1.2 - 0.1) * dimensions[d] * spacing[d];
+				expectedTransform.apply(source, expected);
+				transform.apply(source, actual);
+				Assert.assertArrayEquals(expected, actual, 1e-3);
+			}
+		}
+	}
+
+	@Test
+	public void testTileSize() {
+
+		/* vector last */
+		Assert.assertArrayEquals(
+				new int[]{5, 6, 7},
+				N5DisplacementFieldTransform.tileSize(new DatasetAttributes(new long[]{20, 30, 40, 3}, new int[]{5, 6, 7, 3}, DataType.FLOAT32, new GzipCompression())));
+		/* vector first */
+		Assert.assertArrayEquals(
+				new int[]{5, 6, 7},
+				N5DisplacementFieldTransform.tileSize(new DatasetAttributes(new long[]{3, 20, 30, 40}, new int[]{3, 5, 6, 7}, DataType.FLOAT32, new GzipCompression())));
+		/* ambiguous, vector last takes precedence as in vectorAxisLast */
+		Assert.assertArrayEquals(
+				new int[]{2, 5, 6},
+				N5DisplacementFieldTransform.tileSize(new DatasetAttributes(new long[]{3, 20, 30, 3}, new int[]{2, 5, 6, 3}, DataType.FLOAT32, new GzipCompression())));
+	}
+
+	@Test
+	public void testBatchApply() throws Exception {
+
+		N5DisplacementField.save(n5, "batch", null, dfield, new double[]{2, 2, 2}, blockSize, new GzipCompression());
+		final N5DisplacementFieldTransform transform = N5DisplacementFieldTransform.open(n5, "batch", false);
+
+		final Random rnd = new Random(3);
+		final int numPoints = 10000;
+		final double[] source = new double[numPoints * 3];
+		for (int i = 0; i < source.length; ++i)
+			source[i] = rnd.nextDouble() * 2 * dimensions[i % 3];
+
+		final double[] expected = new double[source.length];
+		final double[] p = new double[3];
+		final double[] q = new double[3];
+		for (int i = 0; i < numPoints; ++i) {
+			System.arraycopy(source, i * 3, p, 0, 3);
+			transform.apply(p, q);
+			System.arraycopy(q, 0, expected, i * 3, 3);
+		}
+
+		final ExecutorService exec = Executors.newFixedThreadPool(4);
+		final double[] target = new double[source.length];
+		transform.apply(source, target, exec, 8);
+		Assert.assertArrayEquals(expected, target, 0);
+
+		/* in place */
+		N5DisplacementField.apply(transform, source, source, new double[]{6, 8, 10}, exec, 3);
+		exec.shutdown();
+		Assert.assertArrayEquals(expected, source, 0);
+	}
+
+	@Test
+	public void testSaveInverse() throws Exception {
+
+		/* smooth, invertible field */
+		final ArrayImg<FloatType, FloatArray> field = ArrayImgs.floats(dimensions);
+		final Cursor<FloatType> cursor = field.localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			final int c = cursor.getIntPosition(3);
+			cursor.get().set((float)(0.5 * Math.sin(0.3 * cursor.getDoublePosition(c) + c)));
+		}
+		N5DisplacementField.save(n5, "inverse/dfield", null, field, null, blockSize, new GzipCompression());
+
+		final ExecutorService exec = Executors.newFixedThreadPool(4);
+		final RandomAccessibleInterval<DoubleType> residuals = N5DisplacementField.saveInverse(
+				n5,
+				"inverse/dfield",
+				"inverse/invdfield",
+				new int[]{4, 5, 6},
+				new GzipCompression(),
+				1e-6,
+				100,
+				exec);
+		exec.shutdown();
+
+		for (final DoubleType residual : Views.flatIterable(residuals))
+			Assert.assertTrue(residual.get() < 1e-5);
+
+		final ExplicitInvertibleRealTransform transform = N5DisplacementField.openInvertible(
+				n5,
+				"inverse/dfield",
+				"inverse/invdfield",
+				new DoubleType(),
+				new NLinearInterpolatorFactory<>());
+		final Random rnd = new Random(5);
+		final double[] y = new double[3];
+		final double[] x = new double[3];
+		final double[] yy = new double[3];
+		for (int i = 0; i < 1000; ++i) {
+			for (int d = 0; d < 3; ++d)
+				y[d] = 2 + rnd.nextDouble() * (dimensions[d] - 5);
+			transform.applyInverse(x, y);
+			transform.apply(x, yy);
+			Assert.assertArrayEquals(y, yy, 0.05);
+		}
+	}
+
+	@Test
+	public void testSaveSampled() throws Exception {
+
+		N5DisplacementField.save(n5, "chain", null, dfield, new double[]{1, 1, 1}, blockSize, new GzipCompression());
+		final AffineTransform3D affine = new AffineTransform3D();
+		affine.set(
+				0.9, 0.0, 0.1, 1.0,
+				0.0, 1.1, 0.0, -1.0,
+				-0.1, 0.0, 1.0, 0.5);
+		final RealTransformSequence chain = new RealTransformSequence();
+		chain.add(affine);
+		chain.add(N5DisplacementField.open(n5, "chain", false));
+
+		final ExecutorService exec = Executors.newFixedThreadPool(4);
+		final long[] sampledDimensions = new long[]{10, 12, 14};
+		N5DisplacementField.saveSampled(n5, "sampled", chain, sampledDimensions, new double[]{1, 1, 1}, new int[]{4, 5, 6}, new GzipCompression(), exec);
+		exec.shutdown();
+
+		/* the baked transform reproduces the chain on grid points */
+		final RealTransform sampled = N5DisplacementField.open(n5, "sampled", false);
+		final double[] source = new double[3];
+		final double[] expected = new double[3];
+		final double[] actual = new double[3];
+		final Random rnd = new Random(9);
+		for (int i = 0; i < 100; ++i) {
+			for (int d = 0; d < 3; ++d)
+				source[d] = rnd.nextInt((int)sampledDimensions[d]);
+			chain.apply(source, expected);
+			sampled.apply(source, actual);
+			Assert.assertArrayEquals(expected, actual, 1e-2);
+		}
+	}
+
+	@Test
+	public void testPyramid() throws Exception {
+
+		/* linear field, so that centered averages are exact */
+		final ArrayImg<FloatType, FloatArray> field = ArrayImgs.floats(dimensions);
+		final Cursor<FloatType> cursor = field.localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.get().set((float)linearDisplacement(cursor.getIntPosition(3), cursor.getLongPosition(0), cursor.getLongPosition(1), cursor.getLongPosition(2)));
+		}
+		N5DisplacementField.save(n5, "/0/" + N5DisplacementField.FORWARD_ATTR, null, field, new double[]{1, 1, 1}, blockSize, new GzipCompression());
+
+		final ExecutorService exec = Executors.newFixedThreadPool(4);
+		N5DisplacementField.savePyramid(n5, N5DisplacementField.FORWARD_ATTR, new long[][]{{2, 2, 2}, {4, 4, 4}}, new int[]{4, 4, 4}, new GzipCompression(), exec);
+		exec.shutdown();
+
+		Assert.assertArrayEquals(new long[]{5, 6, 7, 3}, n5.getDatasetAttributes("/1/" + N5DisplacementField.FORWARD_ATTR).getDimensions());
+		Assert.assertArrayEquals(new double[]{4, 4, 4}, n5.getAttribute("/2/" + N5DisplacementField.FORWARD_ATTR, N5DisplacementField.SPACING_ATTR, double[].class), 0);
+
+		Assert.assertEquals(0, N5DisplacementField.pyramidLevel(n5, N5DisplacementField.FORWARD_ATTR, new double[]{1.5, 1.5, 1.5}));
+		Assert.assertEquals(1, N5DisplacementField.pyramidLevel(n5, N5DisplacementField.FORWARD_ATTR, new double[]{2, 3, 3}));
+		Assert.assertEquals(2, N5DisplacementField.pyramidLevel(n5, N5DisplacementField.FORWARD_ATTR, new double[]{8, 8, 8}));
+
+		/* coarse pixels whose window is inside of the field are the fine displacement at their center */
+		final long[][] factors = {{2, 2, 2}, {4, 4, 4}};
+		for (int level = 1; level <= factors.length; ++level) {
+			final long[] f = factors[level - 1];
+			final RandomAccessibleInterval<FloatType> coarse = N5Utils.open(n5, "/" + level + "/" + N5DisplacementField.FORWARD_ATTR);
+			final Cursor<FloatType> coarseCursor = Views.flatIterable(coarse).localizingCursor();
+			int numChecked = 0;
+			while (coarseCursor.hasNext()) {
+				final float value = coarseCursor.next().get();
+				final long x = coarseCursor.getLongPosition(0) * f[0];
+				final long y = coarseCursor.getLongPosition(1) * f[1];
+				final long z = coarseCursor.getLongPosition(2) * f[2];
+				if (x - f[0] / 2 >= 0 && x + f[0] / 2 < dimensions[0] &&
+						y - f[1] / 2 >= 0 && y + f[1] / 2 < dimensions[1] &&
+						z - f[2] / 2 >= 0 && z + f[2] / 2 < dimensions[2]) {
+					Assert.assertEquals(linearDisplacement(coarseCursor.getIntPosition(3), x, y, z), value, 1e-5);
+					++numChecked;
+				}
+			}
+			Assert.assertTrue(numChecked > 0);
+		}
+	}
+
+	private static double linearDisplacement(final int c, final long x, final long y, final long z) {
+
+		return 0.01 * (c + 1) * x - 0.02 * y + 0.005 * (c + 2) * z + 0.1 * c;
+	}
+
+	@Test
+	public void testWarp() throws Exception {
+
+		/* linear ramp along x, so that interpolation is exact */
+		final long[] imageDimensions = new long[]{20, 15, 10};
+		final ArrayImg<FloatType, FloatArray> image = ArrayImgs.floats(imageDimensions);
+		final Cursor<FloatType> cursor = image.localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.get().set(cursor.getFloatPosition(0) * 2 + cursor.getFloatPosition(2));
+		}
+		N5Utils.save(image, n5, "image", new int[]{6, 6, 6}, new GzipCompression());
+
+		final AffineTransform3D translation = new AffineTransform3D();
+		translation.translate(1.5, 0, 0);
+
+		final ExecutorService exec = Executors.newFixedThreadPool(4);
+		N5DisplacementField.warp(n5, "image", translation, n5, "warped", imageDimensions, new int[]{7, 5, 4}, new GzipCompression(), exec);
+		exec.shutdown();
+
+		final RandomAccessibleInterval<FloatType> warped = N5Utils.open(n5, "warped");
+		final Cursor<FloatType> warpedCursor = Views.flatIterable(warped).localizingCursor();
+		while (warpedCursor.hasNext()) {
+			final float value = warpedCursor.next().get();
+			if (warpedCursor.getLongPosition(0) < imageDimensions[0] - 2)
+				Assert.assertEquals((warpedCursor.getFloatPosition(0) + 1.5f) * 2 + warpedCursor.getFloatPosition(2), value, 1e-4);
+		}
+	}
+
+	@Test
+	public void testHalf() throws Exception {
+
+		Assert.assertEquals(0x3c00, N5DisplacementField.toHalf(1.0f));
+		Assert.assertEquals(0xc000, N5DisplacementField.toHalf(-2.0f));
+		Assert.assertEquals(0x7bff, N5DisplacementField.toHalf(65504.0f));
+		Assert.assertEquals(0x7c00, N5DisplacementField.toHalf(1e6f));
+		Assert.assertEquals(0x0001, N5DisplacementField.toHalf(0x1p-24f));
+		Assert.assertEquals(0x0000, N5DisplacementField.toHalf(1e-9f));
+		for (int half = 0; half < 0x10000; ++half)
+			if ((half & 0x7c00) != 0x7c00)
+				Assert.assertEquals(half, N5DisplacementField.toHalf(N5DisplacementField.fromHalf(half)));
+
+		final ExecutorService exec = Executors.newFixedThreadPool(4);
+		N5DisplacementField.saveHalf(n5, "half", null, dfield, new double[]{1, 1, 1}, blockSize, new GzipCompression(), exec);
+		exec.shutdown();
+		Assert.assertEquals(DataType.UINT16, n5.getDatasetAttributes("half").getDataType());
+
+		final RandomAccessibleInterval<FloatType> opened = N5DisplacementField.openField(n5, "half", new FloatType());
+		final Iterator<FloatType> expectedIterator = Views.flatIterable(dfield).iterator();
+		final Iterator<FloatType> actualIterator = Views.flatIterable(opened).iterator();
+		while (expectedIterator.hasNext()) {
+			final float expected = expectedIterator.next().get();
+			Assert.assertEquals(expected, actualIterator.next().get(), Math.abs(expected) * 0x1p-11 + 0x1p-24);
+		}
+
+		/* overwriting with float32 drops the half precision marker */
+		N5DisplacementField.save(n5, "half", null, dfield, new double[]{1, 1, 1}, blockSize, new GzipCompression());
+		Assert.assertNull(n5.getAttribute("half", N5DisplacementField.FLOAT16_ATTR, Boolean.class));
+		assertFieldEquals(dfield, N5DisplacementField.openField(n5, "half", new FloatType()));
+	}
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2017-2018, Stephan Saalfeld, Philipp Hanslovsky, Igor Pisarev
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * Redistributions of source code must retain the above copyright notice, this
+ *  list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.janelia.saalfeldlab.n5.imglib2;
+
+import java.util.Random;
+
+import org.janelia.saalfeldlab.n5.GzipCompression;
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.N5Writer;
+
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.realtransform.RealTransform;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Compares the throughput of {@link N5DisplacementFieldTransform} with the
+ * transform composed by {@link N5DisplacementField#open(org.janelia.saalfeldlab.n5.N5Reader, String, boolean)}.
+ *
+ * Usage: N5DisplacementFieldTransformBenchmark [n5 path] [number of points]
+ */
+public class N5DisplacementFieldTransformBenchmark {
+
+	public static final void main(final String... args) throws Exception {
+
+		final String n5Path = args.length > 0 ? args[0] : System.getProperty("user.home") + "/tmp/n5-imglib2-dfield-benchmark";
+		final int numPoints = args.length > 1 ? Integer.parseInt(args[1]) : 10000000;
+
+		final long[] dimensions = new long[]{128, 128, 128, 3};
+		final ArrayImg<FloatType, FloatArray> field = ArrayImgs.floats(dimensions);
+		final Random rnd = new Random(0);
+		for (final FloatType t : field)
+			t.set((rnd.nextFloat() - 0.5f) * 10);
+
+		final AffineTransform3D affine = new AffineTransform3D();
+		affine.scale(1.1);
+		final double[] spacing = new double[]{1.0, 1.0, 2.0};
+
+		final N5Writer n5 = new N5FSWriter(n5Path);
+		N5DisplacementField.save(n5, "dfield", affine, field, spacing, new int[]{64, 64, 64, 3}, new GzipCompression());
+
+		final double[][] points = new double[numPoints][3];
+		for (final double[] point : points)
+			for (int d = 0; d < 3; ++d)
+				point[d] = rnd.nextDouble() * dimensions[d] * spacing[d];
+
+		final RealTransform composed = N5DisplacementField.open(n5, "dfield", false);
+		final RealTransform specialized = N5DisplacementFieldTransform.open(n5, "dfield", false);
+
+		/* warm up, then measure */
+		for (int i = 0; i < 3; ++i) {
+			System.out.println(String.format("composed:    %.1f ms", time(composed, points)));
+			System.out.println(String.format("specialized: %.1f ms", time(specialized, points)));
+		}
+
+		n5.remove("");
+	}
+
+	private static double time(final RealTransform transform, final double[][] points) {
+
+		final double[] target = new double[3];
+		double sum = 0;
+		final long t0 = System.nanoTime();
+		for (final double[] point : points) {
+			transform.apply(point, target);
+			sum += target[0];
+		}
+		final double ms = (System.nanoTime() - t0) / 1e6;
+		if (Double.isNaN(sum))
+			System.out.println("NaN");
+		return ms;
+	}
+}
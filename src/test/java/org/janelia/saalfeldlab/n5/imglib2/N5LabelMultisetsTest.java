@@ -31,13 +31,18 @@ import static org.junit.Assert.fail;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
 import org.janelia.saalfeldlab.n5.GzipCompression;
 import org.janelia.saalfeldlab.n5.N5FSWriter;
 import org.janelia.saalfeldlab.n5.N5Writer;
@@ -47,14 +52,29 @@ import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import gnu.trove.map.hash.TLongLongHashMap;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
 import net.imglib2.img.list.ListImg;
 import net.imglib2.type.label.Label;
 import net.imglib2.type.label.LabelMultisetEntry;
 import net.imglib2.type.label.LabelMultisetEntryList;
 import net.imglib2.type.label.LabelMultisetType;
 import net.imglib2.type.label.LabelMultisetType.Entry;
+import net.imglib2.type.label.LabelUtils;
+import net.imglib2.type.label.VolatileLabelMultisetArray;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedLongType;
+import net.imglib2.util.ConstantUtils;
+import net.imglib2.util.IntervalIndexer;
 import net.imglib2.util.Intervals;
+import net.imglib2.util.Pair;
 import net.imglib2.view.Views;
 
 public class N5LabelMultisetsTest {
@@ -129,6 +149,390 @@ public class N5LabelMultisetsTest {
 		}
 	}
 
+	@Test
+	public void testConvertToLabelMultiset() throws IOException, InterruptedException, ExecutionException {
+
+		final Random rnd = new Random();
+		final ArrayImg<UnsignedLongType, ?> labels = ArrayImgs.unsignedLongs(dimensions);
+		for (final UnsignedLongType t : labels)
+			t.set(rnd.nextInt(100));
+		N5Utils.save(labels, n5, datasetName + "-uint64", blockSize, new GzipCompression());
+
+		final ExecutorService exec = Executors.newFixedThreadPool(4);
+		N5LabelMultisets.convertToLabelMultiset(n5, datasetName + "-uint64", datasetName + "-converted", new GzipCompression(), exec);
+		exec.shutdown();
+
+		final RandomAccessibleInterval<LabelMultisetType> loaded = N5LabelMultisets.openLabelMultiset(n5, datasetName + "-converted");
+		Assert.assertTrue(Intervals.equals(labels, loaded));
+		final Iterator<UnsignedLongType> expectedIterator = Views.flatIterable(labels).iterator();
+		final Iterator<LabelMultisetType> actualIterator = Views.flatIterable(loaded).iterator();
+		while (expectedIterator.hasNext()) {
+			final long expected = expectedIterator.next().get();
+			final LabelMultisetType actual = actualIterator.next();
+			Assert.assertEquals(expected, actual.argMax());
+			Assert.assertEquals(1, actual.entrySet().size());
+			Assert.assertEquals(1, actual.entrySet().iterator().next().getCount());
+		}
+	}
+
+	@Test
+	public void testDownsampleMipmaps() throws IOException, InterruptedException, ExecutionException {
+
+		final String group = "/test/group/label-mipmaps";
+		final int maxNumEntries = 3;
+		N5LabelMultisets.saveLabelMultiset(expectedImg, n5, group + "/s0", blockSize, new GzipCompression());
+		LabelBlockIndex.create(n5, group + "/s0");
+
+		final ExecutorService exec = Executors.newFixedThreadPool(4);
+		N5Downsampling.downsampleMipmaps(n5, group, new long[][]{{2, 2, 2}, {4, 4, 4}}, maxNumEntries, exec);
+		exec.shutdown();
+
+		/* the label block index does not show up as a scale level */
+		Assert.assertEquals(3, n5.list(group).length);
+		final Pair<RandomAccessibleInterval<UnsignedByteType>[], double[][]> mipmaps = N5Utils.openMipmaps(n5, group, false);
+		Assert.assertEquals(3, mipmaps.getA().length);
+		Assert.assertArrayEquals(new double[]{1, 1, 1}, mipmaps.getB()[0], 0);
+		Assert.assertArrayEquals(new double[]{2, 2, 2}, mipmaps.getB()[1], 0);
+		Assert.assertArrayEquals(new double[]{4, 4, 4}, mipmaps.getB()[2], 0);
+
+		Assert.assertArrayEquals(new long[]{4, 4, 4}, n5.getAttribute(group + "/s2", N5Downsampling.DOWNSAMPLING_FACTORS_KEY, long[].class));
+		final RandomAccessibleInterval<LabelMultisetType> s2 = N5LabelMultisets.openLabelMultiset(n5, group + "/s2");
+		Assert.assertArrayEquals(new long[]{3, 6, 9}, Intervals.dimensionsAsLongArray(s2));
+		for (final LabelMultisetType lmt : Views.flatIterable(s2))
+			Assert.assertTrue(lmt.entrySet().size() <= maxNumEntries);
+	}
+
+	@Test
+	public void testUpdateMipmaps() throws IOException, InterruptedException, ExecutionException {
+
+		final String group = "/test/group/label-mipmaps-updated";
+		final String referenceGroup = "/test/group/label-mipmaps-reference";
+		final long[][] factors = {{2, 2, 2}};
+		N5LabelMultisets.saveLabelMultiset(expectedImg, n5, group + "/s0", blockSize, new GzipCompression());
+
+		final ExecutorService exec = Executors.newFixedThreadPool(4);
+		N5Downsampling.downsampleMipmaps(n5, group, factors, 0, exec);
+
+		/* modify two s0 blocks and refresh the mipmaps */
+		final long[][] positions = {{0, 0, 0}, {1, 1, 1}, {10, 21, 32}};
+		final long[] labels = {100001, 100001, 100002};
+		N5LabelMultisets.updateLabels(n5, group + "/s0", positions, labels, exec);
+		N5Downsampling.updateMipmaps(n5, group, Arrays.asList(new long[]{0, 0, 0}, new long[]{2, 3, 3}), exec);
+
+		/* downsample a copy of the modified s0 from scratch */
+		N5LabelMultisets.saveLabelMultiset(
+				N5LabelMultisets.openLabelMultiset(n5, group + "/s0"),
+				n5,
+				referenceGroup + "/s0",
+				blockSize,
+				new GzipCompression());
+		N5Downsampling.downsampleMipmaps(n5, referenceGroup, factors, 0, exec);
+		exec.shutdown();
+
+		final RandomAccessibleInterval<LabelMultisetType> expected = N5LabelMultisets.openLabelMultiset(n5, referenceGroup + "/s1");
+		final RandomAccessibleInterval<LabelMultisetType> actual = N5LabelMultisets.openLabelMultiset(n5, group + "/s1");
+		Assert.assertTrue(Intervals.equals(expected, actual));
+		final Iterator<LabelMultisetType> expectedIterator = Views.flatIterable(expected).iterator();
+		final Iterator<LabelMultisetType> actualIterator = Views.flatIterable(actual).iterator();
+		while (expectedIterator.hasNext())
+			Assert.assertEquals(counts(expectedIterator.next()), counts(actualIterator.next()));
+	}
+
+	private static TLongLongHashMap counts(final LabelMultisetType lmt) {
+
+		final TLongLongHashMap counts = new TLongLongHashMap();
+		for (final Entry<Label> entry : lmt.entrySet())
+			counts.adjustOrPutValue(entry.getElement().id(), entry.getCount(), entry.getCount());
+		return counts;
+	}
+
+	@Test
+	public void testOpenArgMax() throws IOException {
+
+		N5LabelMultisets.saveLabelMultiset(expectedImg, n5, datasetName + "-argmax", blockSize, new GzipCompression());
+		final RandomAccessibleInterval<UnsignedLongType> argMax = N5LabelMultisets.openArgMax(n5, datasetName + "-argmax");
+		Assert.assertTrue(Intervals.equals(expectedImg, argMax));
+		final Iterator<LabelMultisetType> expectedIterator = Views.flatIterable(expectedImg).iterator();
+		final Iterator<UnsignedLongType> actualIterator = Views.flatIterable(argMax).iterator();
+		while (expectedIterator.hasNext())
+			Assert.assertEquals(expectedIterator.next().argMax(), actualIterator.next().get());
+	}
+
+	@Test
+	public void testLabelCounts() throws IOException, InterruptedException, ExecutionException {
+
+		final TLongLongHashMap expectedCounts = new TLongLongHashMap();
+		for (final LabelMultisetType lmt : Views.flatIterable(expectedImg))
+			for (final Entry<Label> entry : lmt.entrySet())
+				if (entry.getCount() > 0)
+					expectedCounts.adjustOrPutValue(entry.getElement().id(), entry.getCount(), entry.getCount());
+
+		final LabelCounts labelCounts = new LabelCounts();
+		final ExecutorService exec = Executors.newFixedThreadPool(4);
+		N5LabelMultisets.saveLabelMultiset(
+				expectedImg,
+				n5,
+				datasetName + "-counted",
+				blockSize,
+				new GzipCompression(),
+				exec,
+				SaveProgressListener.NONE,
+				labelCounts);
+		exec.shutdown();
+
+		Assert.assertEquals(expectedCounts, labelCounts.getCounts());
+		labelCounts.save(n5, datasetName + "-counted", new GzipCompression());
+		Assert.assertEquals(expectedCounts, LabelCounts.read(n5, datasetName + "-counted"));
+		Assert.assertTrue(labelCounts.getCounts().isEmpty());
+
+		/* sparse label updates adjust the stored counts */
+		final ExecutorService updateExec = Executors.newFixedThreadPool(4);
+		N5LabelMultisets.updateLabels(
+				n5,
+				datasetName + "-counted",
+				new long[][]{{0, 0, 0}, {4, 6, 8}, {10, 21, 32}},
+				new long[]{100001, 100002, 100001},
+				updateExec);
+		updateExec.shutdown();
+		final TLongLongHashMap updatedCounts = new TLongLongHashMap();
+		for (final LabelMultisetType lmt : Views.flatIterable(N5LabelMultisets.openLabelMultiset(n5, datasetName + "-counted")))
+			for (final Entry<Label> entry : lmt.entrySet())
+				if (entry.getCount() > 0)
+					updatedCounts.adjustOrPutValue(entry.getElement().id(), entry.getCount(), entry.getCount());
+		Assert.assertTrue(updatedCounts.containsKey(100001));
+		Assert.assertEquals(updatedCounts, LabelCounts.read(n5, datasetName + "-counted"));
+
+		/* block saves without counting remove the stored counts */
+		final DatasetAttributes attributes = n5.getDatasetAttributes(datasetName + "-counted");
+		N5LabelMultisets.saveLabelMultisetBlock(
+				Views.interval(expectedImg, new long[]{0, 0, 0}, new long[]{4, 6, 8}),
+				n5,
+				datasetName + "-counted",
+				attributes,
+				new long[]{0, 0, 0});
+		Assert.assertNull(LabelCounts.getCountsDataset(n5, datasetName + "-counted"));
+		Assert.assertFalse(n5.datasetExists(LabelCounts.defaultCountsDataset(datasetName + "-counted")));
+
+		/* nothing counted */
+		final String emptyDataset = datasetName + "-counted-empty";
+		n5.createDataset(emptyDataset, dimensions, blockSize, DataType.UINT8, new GzipCompression());
+		n5.setAttribute(emptyDataset, N5LabelMultisets.LABEL_MULTISETTYPE_KEY, true);
+		new LabelCounts().save(n5, emptyDataset, new GzipCompression());
+		Assert.assertTrue(LabelCounts.read(n5, emptyDataset).isEmpty());
+	}
+
+	@Test
+	public void testLabelLookup() throws IOException {
+
+		N5LabelMultisets.saveLabelMultiset(expectedImg, n5, datasetName + "-remapped", blockSize, new GzipCompression());
+
+		/* merge all labels into one segment */
+		final TLongLongHashMap table = new TLongLongHashMap();
+		for (final LabelMultisetType lmt : Views.flatIterable(expectedImg))
+			for (final Entry<Label> entry : lmt.entrySet())
+				table.put(entry.getElement().id(), 1);
+
+		final LabelLookup lookup = new LabelLookup(table);
+		final RandomAccessibleInterval<LabelMultisetType> remapped = N5LabelMultisets.openLabelMultiset(n5, datasetName + "-remapped", lookup);
+		final Iterator<LabelMultisetType> expectedIterator = Views.flatIterable(expectedImg).iterator();
+		final Iterator<LabelMultisetType> actualIterator = Views.flatIterable(remapped).iterator();
+		while (expectedIterator.hasNext()) {
+			final LabelMultisetType expected = expectedIterator.next();
+			final LabelMultisetType actual = actualIterator.next();
+			if (expected.entrySet().isEmpty())
+				Assert.assertTrue(actual.entrySet().isEmpty());
+			else {
+				Assert.assertEquals(1, actual.entrySet().size());
+				Assert.assertEquals(1, actual.argMax());
+				Assert.assertEquals(expected.size(), actual.size());
+			}
+		}
+
+		/* swapping the table invalidates the cached cells, remapped entries are sorted and merged */
+		lookup.setTable(new TLongLongHashMap());
+		final Iterator<LabelMultisetType> expectedIterator2 = Views.flatIterable(expectedImg).iterator();
+		final Iterator<LabelMultisetType> actualIterator2 = Views.flatIterable(remapped).iterator();
+		while (expectedIterator2.hasNext()) {
+			final LabelMultisetType expected = expectedIterator2.next();
+			final LabelMultisetType actual = actualIterator2.next();
+			Assert.assertEquals(expected.size(), actual.size());
+			final Set<Long> expectedIds = new HashSet<>();
+			for (final Entry<Label> entry : expected.entrySet())
+				expectedIds.add(entry.getElement().id());
+			for (final Entry<Label> entry : actual.entrySet())
+				Assert.assertTrue(expectedIds.contains(entry.getElement().id()));
+		}
+	}
+
+	@Test
+	public void testUpdateLabels() throws IOException, InterruptedException, ExecutionException {
+
+		final String dataset = datasetName + "-updated";
+		N5LabelMultisets.saveLabelMultiset(expectedImg, n5, dataset, blockSize, new GzipCompression());
+
+		final DatasetAttributes attributes = n5.getDatasetAttributes(dataset);
+		final CellGrid grid = new CellGrid(dimensions, blockSize);
+		final long[] gridDimensions = grid.getGridDimensions();
+		final byte[][] before = new byte[(int)Intervals.numElements(gridDimensions)][];
+		for (final long[] gridPosition : N5Utils.gridPositions(new FinalInterval(dimensions), blockSize))
+			before[(int)IntervalIndexer.positionToIndex(gridPosition, gridDimensions)] =
+					(byte[])n5.readBlock(dataset, attributes, gridPosition).getData();
+
+		final long[][] positions = {{0, 0, 0}, {4, 6, 8}, {10, 21, 32}};
+		final long[] labels = {100001, 100002, 100003};
+		final ExecutorService exec = Executors.newFixedThreadPool(4);
+		N5LabelMultisets.updateLabels(n5, dataset, positions, labels, exec);
+		exec.shutdown();
+
+		final TLongLongHashMap labelsByIndex = new TLongLongHashMap();
+		final Set<Long> patchedBlocks = new HashSet<>();
+		final long[] gridPosition = new long[3];
+		for (int i = 0; i < positions.length; ++i) {
+			labelsByIndex.put(IntervalIndexer.positionToIndex(positions[i], dimensions), labels[i]);
+			grid.getCellPosition(positions[i], gridPosition);
+			patchedBlocks.add(IntervalIndexer.positionToIndex(gridPosition, gridDimensions));
+		}
+
+		final RandomAccessibleInterval<LabelMultisetType> updated = N5LabelMultisets.openLabelMultiset(n5, dataset);
+		final RandomAccess<LabelMultisetType> expectedAccess = expectedImg.randomAccess();
+		final long[] position = new long[3];
+		for (final long[] blockGridPosition : N5Utils.gridPositions(new FinalInterval(dimensions), blockSize)) {
+			final long blockIndex = IntervalIndexer.positionToIndex(blockGridPosition, gridDimensions);
+			if (patchedBlocks.contains(blockIndex)) {
+				/* changed voxels have a single entry with the previous total count, all others are unchanged */
+				final Cursor<LabelMultisetType> cursor = Views.interval(updated, N5Utils.blockInterval(grid, blockGridPosition)).localizingCursor();
+				while (cursor.hasNext()) {
+					final LabelMultisetType actual = cursor.next();
+					cursor.localize(position);
+					expectedAccess.setPosition(position);
+					final LabelMultisetType expected = expectedAccess.get();
+					final long index = IntervalIndexer.positionToIndex(position, dimensions);
+					if (labelsByIndex.containsKey(index)) {
+						final long label = labelsByIndex.get(index);
+						final TLongLongHashMap expectedCounts = new TLongLongHashMap();
+						expectedCounts.put(label, Math.max(1, expected.size()));
+						Assert.assertEquals(label, actual.argMax());
+						Assert.assertEquals(expectedCounts, counts(actual));
+					} else {
+						Assert.assertEquals(expected.argMax(), actual.argMax());
+						Assert.assertEquals(counts(expected), counts(actual));
+					}
+				}
+			} else {
+				/* all other blocks are not rewritten */
+				Assert.assertArrayEquals(
+						before[(int)blockIndex],
+						(byte[])n5.readBlock(dataset, attributes, blockGridPosition).getData());
+			}
+		}
+	}
+
+	@Test
+	public void testLabelBlockIndex() throws IOException, InterruptedException, ExecutionException {
+
+		N5LabelMultisets.saveLabelMultiset(expectedImg, n5, datasetName + "-indexed", blockSize, new GzipCompression());
+		Assert.assertNull(LabelBlockIndex.getIndexDataset(n5, datasetName + "-indexed"));
+		LabelBlockIndex.create(n5, datasetName + "-indexed");
+		final LabelBlockIndex index = LabelBlockIndex.read(n5, datasetName + "-indexed");
+
+		long label = Label.INVALID;
+		for (final LabelMultisetType lmt : Views.flatIterable(expectedImg))
+			if (!lmt.entrySet().isEmpty()) {
+				label = lmt.entrySet().iterator().next().getElement().id();
+				break;
+			}
+
+		final Set<List<Long>> expectedGridPositions = new HashSet<>();
+		final Cursor<LabelMultisetType> cursor = Views.flatIterable(expectedImg).localizingCursor();
+		while (cursor.hasNext()) {
+			for (final Entry<Label> entry : cursor.next().entrySet())
+				if (entry.getElement().id() == label)
+					expectedGridPositions.add(Arrays.asList(
+							cursor.getLongPosition(0) / blockSize[0],
+							cursor.getLongPosition(1) / blockSize[1],
+							cursor.getLongPosition(2) / blockSize[2]));
+		}
+
+		final Set<List<Long>> gridPositions = new HashSet<>();
+		for (final long[] gridPosition : index.getGridPositions(label))
+			gridPositions.add(Arrays.asList(gridPosition[0], gridPosition[1], gridPosition[2]));
+		Assert.assertEquals(expectedGridPositions, gridPositions);
+		Assert.assertNotNull(index.getBoundingBox(label));
+		Assert.assertFalse(index.contains(Label.INVALID));
+
+		/* the index built while saving matches the index of the existing blocks */
+		final ExecutorService exec = Executors.newFixedThreadPool(4);
+		N5LabelMultisets.saveLabelMultiset(expectedImg, n5, datasetName + "-indexed-on-save", blockSize, new GzipCompression(), exec, SaveProgressListener.NONE, null, true);
+		exec.shutdown();
+		Assert.assertNotNull(LabelBlockIndex.getIndexDataset(n5, datasetName + "-indexed-on-save"));
+		final LabelBlockIndex savedIndex = LabelBlockIndex.read(n5, datasetName + "-indexed-on-save");
+		final Set<List<Long>> savedGridPositions = new HashSet<>();
+		for (final long[] gridPosition : savedIndex.getGridPositions(label))
+			savedGridPositions.add(Arrays.asList(gridPosition[0], gridPosition[1], gridPosition[2]));
+		Assert.assertEquals(expectedGridPositions, savedGridPositions);
+	}
+
+	@Test
+	public void testMissingBlock() throws IOException {
+
+		final String dataset = datasetName + "-missing";
+		n5.createDataset(dataset, dimensions, blockSize, DataType.UINT8, new GzipCompression());
+		n5.setAttribute(dataset, N5LabelMultisets.LABEL_MULTISETTYPE_KEY, true);
+
+		/* without replacement, missing blocks share one empty array */
+		final N5LabelMultisetCacheLoader loader = new N5LabelMultisetCacheLoader(n5, dataset);
+		final Cell<VolatileLabelMultisetArray> cell = loader.get(0L);
+		Assert.assertNotNull(cell);
+		Assert.assertNotNull(cell.getData());
+		Assert.assertTrue(cell.getData().isValid());
+		Assert.assertEquals(0, cell.getData().getCurrentStorageArray().length);
+		Assert.assertSame(cell.getData(), loader.get(3L * 4 * 4 - 1).getData());
+	}
+
+	@Test
+	public void testNullReplacement() throws IOException {
+
+		final String dataset = datasetName + "-empty";
+		n5.createDataset(dataset, dimensions, blockSize, DataType.UINT8, new GzipCompression());
+		n5.setAttribute(dataset, N5LabelMultisets.LABEL_MULTISETTYPE_KEY, true);
+		final N5LabelMultisetCacheLoader loader = new N5LabelMultisetCacheLoader(
+				n5,
+				dataset,
+				N5LabelMultisetCacheLoader.constantNullReplacement(Label.BACKGROUND));
+
+		/* cells of equal shape share one array, the clipped last cell gets its own */
+		final Cell<VolatileLabelMultisetArray> first = loader.get(0L);
+		Assert.assertSame(first.getData(), loader.get(1L).getData());
+		final Cell<VolatileLabelMultisetArray> last = loader.get(3L * 4 * 4 - 1);
+		Assert.assertNotSame(first.getData(), last.getData());
+
+		final RandomAccessibleInterval<LabelMultisetType> img = N5LabelMultisets.openLabelMultiset(n5, dataset);
+		for (final LabelMultisetType lmt : Views.flatIterable(img)) {
+			Assert.assertEquals(Label.BACKGROUND, lmt.argMax());
+			Assert.assertEquals(1, lmt.entrySet().size());
+		}
+	}
+
+	@Test
+	public void testBlockSerializer() {
+
+		final RandomAccessibleInterval<LabelMultisetType> block = Views.interval(expectedImg, new long[]{0, 0, 0}, new long[]{4, 6, 8});
+		final int numElements = (int) Intervals.numElements(block);
+		final byte[] expected = LabelUtils.serializeLabelMultisetTypes(Views.flatIterable(block), numElements);
+
+		/* serialize twice to cover reused buffers */
+		Assert.assertArrayEquals(expected, LabelMultisetBlockSerializer.serialize(Views.flatIterable(block), numElements));
+		Assert.assertArrayEquals(expected, LabelMultisetBlockSerializer.serialize(Views.flatIterable(block), numElements));
+		final LabelMultisetEntryList backgroundEntries = new LabelMultisetEntryList(1);
+		backgroundEntries.add(new LabelMultisetEntry(Label.BACKGROUND, 1));
+		final LabelMultisetType background = new LabelMultisetType(backgroundEntries);
+		Assert.assertNull(LabelMultisetBlockSerializer.serializeNonEmpty(
+				Views.flatIterable(ConstantUtils.constantRandomAccessibleInterval(background, block)),
+				numElements,
+				Label.BACKGROUND));
+		Assert.assertNotNull(LabelMultisetBlockSerializer.serializeNonEmpty(Views.flatIterable(block), numElements, Label.BACKGROUND));
+	}
+
 	private void assertEquals(final RandomAccessibleInterval<LabelMultisetType> actualImg) {
 
 		Assert.assertTrue(Intervals.equals(expectedImg, actualImg));
@@ -31,14 +31,22 @@ import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import org.hamcrest.CoreMatchers;
 import org.hamcrest.MatcherAssert;
+import org.janelia.saalfeldlab.n5.DataBlock;
 import org.janelia.saalfeldlab.n5.DataType;
 import org.janelia.saalfeldlab.n5.DatasetAttributes;
 import org.janelia.saalfeldlab.n5.GzipCompression;
@@ -54,6 +62,9 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.cache.img.CachedCellImg;
 import net.imglib2.img.array.ArrayImg;
@@ -61,7 +72,15 @@ import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.img.basictypeaccess.ShortAccess;
 import net.imglib2.img.basictypeaccess.array.ShortArray;
 import net.imglib2.img.basictypeaccess.volatiles.VolatileAccess;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.list.ListImg;
+import net.imglib2.type.label.LabelMultisetEntry;
+import net.imglib2.type.label.LabelMultisetEntryList;
+import net.imglib2.type.label.LabelMultisetType;
+import net.imglib2.type.logic.BitType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.IntervalIndexer;
+import net.imglib2.util.Intervals;
 import net.imglib2.util.Pair;
 import net.imglib2.util.Util;
 import net.imglib2.view.IntervalView;
@@ -201,6 +220,229 @@ public class N5UtilsTest {
 		}
 	}
 
+	@Test
+	public void testSaveProgress() throws IOException, InterruptedException, ExecutionException {
+
+		final ArrayImg<UnsignedShortType, ?> img = ArrayImgs.unsignedShorts(data, dimensions);
+		final SaveProgress progress = new SaveProgress();
+		final ExecutorService exec = Executors.newFixedThreadPool(4);
+		N5Utils.save(img, n5, datasetName, blockSize, new RawCompression(), exec, progress);
+		exec.shutdown();
+
+		Assert.assertEquals(3 * 4 * 4, progress.getNumBlocks());
+		Assert.assertEquals(progress.getNumBlocks(), progress.getNumBlocksSaved());
+		Assert.assertEquals(2 * Intervals.numElements(dimensions), progress.getNumBytes());
+		Assert.assertEquals(1.0, progress.getProgress(), 0.0);
+	}
+
+	@Test
+	public void testUpdateMipmaps() throws IOException, InterruptedException, ExecutionException {
+
+		final String group = "/test/group/mipmaps";
+		final long[] factors = new long[]{2, 2, 2};
+		final ArrayImg<UnsignedShortType, ?> img = ArrayImgs.unsignedShorts(data, dimensions);
+		final ArrayImg<UnsignedShortType, ?> downsampled = ArrayImgs.unsignedShorts(6, 11, 17);
+
+		N5Utils.save(img, n5, group + "/s0", blockSize, new RawCompression());
+		N5Utils.save(downsampled, n5, group + "/s1", blockSize, new RawCompression());
+		n5.setAttribute(group + "/s1", N5Downsampling.DOWNSAMPLING_FACTORS_KEY, factors);
+
+		final ExecutorService exec = Executors.newFixedThreadPool(4);
+		N5Downsampling.updateMipmaps(n5, group, Arrays.asList(new long[]{0, 0, 0}), exec);
+		exec.shutdown();
+
+		/* only the first s1 block intersects the first s0 block */
+		final FinalInterval updated = new FinalInterval(
+				new long[]{0, 0, 0},
+				new long[]{blockSize[0] - 1, blockSize[1] - 1, blockSize[2] - 1});
+		N5Downsampling.average(img, img, downsampled, factors);
+		final RandomAccessibleInterval<UnsignedShortType> loaded = N5Utils.open(n5, group + "/s1");
+		final Cursor<UnsignedShortType> c = downsampled.localizingCursor();
+		final RandomAccess<UnsignedShortType> r = loaded.randomAccess();
+		while (c.hasNext()) {
+			c.fwd();
+			r.setPosition(c);
+			if (Intervals.contains(updated, c))
+				Assert.assertEquals(c.get().get(), r.get().get());
+			else
+				Assert.assertEquals(0, r.get().get());
+		}
+	}
+
+	@Test
+	public void testSaveResumable() throws IOException, InterruptedException, ExecutionException {
+
+		final String resumableDataset = "/test/group/resumable-dataset";
+		final ArrayImg<UnsignedShortType, ?> img = ArrayImgs.unsignedShorts(data, dimensions);
+		final Path journalPath = Paths.get(testDirPath, "resumable.journal");
+		n5.remove(resumableDataset);
+		final long[] gridDimensions = new long[]{3, 4, 4};
+		final long[] skipped = new long[]{1, 2, 3};
+
+		/* pretend that a previous save already wrote one block */
+		try (final BlockJournal journal = BlockJournal.open(journalPath, gridDimensions)) {
+			journal.append(skipped);
+		}
+
+		final ExecutorService exec = Executors.newFixedThreadPool(4);
+		final SaveProgress progress = new SaveProgress();
+		N5Utils.saveResumable(img, n5, resumableDataset, blockSize, new RawCompression(), journalPath, exec, progress);
+		exec.shutdown();
+
+		Assert.assertEquals(3 * 4 * 4 - 1, progress.getNumBlocksSaved());
+		Assert.assertFalse(Files.exists(journalPath));
+		Assert.assertNull(n5.readBlock(resumableDataset, n5.getDatasetAttributes(resumableDataset), skipped));
+		Assert.assertNotNull(n5.readBlock(resumableDataset, n5.getDatasetAttributes(resumableDataset), new long[]{0, 0, 0}));
+
+		n5.remove(resumableDataset);
+	}
+
+	@Test
+	public void testSaveResumableLabelBlockIndex() throws IOException, InterruptedException, ExecutionException {
+
+		final String resumableDataset = "/test/group/resumable-labels";
+		final Path journalPath = Paths.get(testDirPath, "resumable-labels.journal");
+		n5.remove(resumableDataset);
+
+		final Random rnd = new Random(5);
+		final List<LabelMultisetType> elements = new ArrayList<>();
+		for (int i = 0; i < Intervals.numElements(dimensions); ++i) {
+			final LabelMultisetEntryList entries = new LabelMultisetEntryList(1);
+			entries.add(new LabelMultisetEntry(rnd.nextInt(1000), 1 + rnd.nextInt(10)));
+			elements.add(new LabelMultisetType(entries));
+		}
+		final ListImg<LabelMultisetType> img = new ListImg<>(elements, dimensions);
+
+		/* an interrupted save of an indexed dataset that wrote two blocks */
+		final ExecutorService exec = Executors.newFixedThreadPool(4);
+		final List<long[]> written = Arrays.asList(new long[]{0, 0, 0}, new long[]{1, 2, 3});
+		N5Utils.createDataset(img, n5, resumableDataset, blockSize, new RawCompression());
+		LabelBlockIndex.create(n5, resumableDataset);
+		N5Utils.saveBlocks(img, n5, resumableDataset, written, exec);
+		final long[] gridDimensions = new CellGrid(dimensions, blockSize).getGridDimensions();
+		try (final BlockJournal journal = BlockJournal.open(journalPath, gridDimensions)) {
+			for (final long[] gridPosition : written)
+				journal.append(gridPosition);
+		}
+
+		final SaveProgress progress = new SaveProgress();
+		N5Utils.saveResumable(img, n5, resumableDataset, blockSize, new RawCompression(), journalPath, exec, progress);
+		exec.shutdown();
+		Assert.assertEquals(3 * 4 * 4 - 2, progress.getNumBlocksSaved());
+
+		/* the index covers the blocks of both runs */
+		final DatasetAttributes attributes = n5.getDatasetAttributes(resumableDataset);
+		final String indexDataset = LabelBlockIndex.getIndexDataset(n5, resumableDataset);
+		Assert.assertNotNull(indexDataset);
+		final DatasetAttributes indexAttributes = n5.getDatasetAttributes(indexDataset);
+		for (final long[] gridPosition : N5Utils.gridPositions(new FinalInterval(dimensions), blockSize)) {
+			final DataBlock<?> indexBlock = n5.readBlock(indexDataset, indexAttributes, gridPosition);
+			Assert.assertNotNull(indexBlock);
+			Assert.assertArrayEquals(
+					LabelMultisetBlockSerializer.labels((byte[])n5.readBlock(resumableDataset, attributes, gridPosition).getData()),
+					(long[])indexBlock.getData());
+		}
+
+		n5.remove(resumableDataset);
+	}
+
+	@Test
+	public void testSaveMaskedBlocks() throws IOException, InterruptedException, ExecutionException {
+
+		final String sparseDataset = "/test/group/sparse-dataset";
+		final ArrayImg<UnsignedShortType, ?> img = ArrayImgs.unsignedShorts(data, dimensions);
+		n5.remove(sparseDataset);
+
+		/* fill the dataset with a constant that differs from the source */
+		final ArrayImg<UnsignedShortType, ?> background = ArrayImgs.unsignedShorts(dimensions);
+		for (final UnsignedShortType t : background)
+			t.set(7);
+		N5Utils.save(background, n5, sparseDataset, blockSize, new RawCompression());
+
+		final DatasetAttributes attributes = n5.getDatasetAttributes(sparseDataset);
+		final CellGrid grid = new CellGrid(dimensions, blockSize);
+		final long[] gridDimensions = grid.getGridDimensions();
+		final short[][] before = new short[(int)Intervals.numElements(gridDimensions)][];
+		for (final long[] gridPosition : N5Utils.gridPositions(new FinalInterval(dimensions), blockSize))
+			before[(int)IntervalIndexer.positionToIndex(gridPosition, gridDimensions)] =
+					(short[])n5.readBlock(sparseDataset, attributes, gridPosition).getData();
+
+		final ArrayImg<BitType, ?> blockMask = ArrayImgs.bits(gridDimensions);
+		final RandomAccess<BitType> maskAccess = blockMask.randomAccess();
+		maskAccess.setPosition(new long[]{2, 1, 3});
+		maskAccess.get().set(true);
+		maskAccess.setPosition(new long[]{0, 3, 0});
+		maskAccess.get().set(true);
+
+		final ExecutorService exec = Executors.newFixedThreadPool(4);
+
+		/* sources and masks that do not match the dataset are rejected */
+		try {
+			N5Utils.saveMaskedBlocks(Views.interval(img, new long[]{0, 0, 0}, new long[]{9, 21, 32}), n5, sparseDataset, blockMask, exec);
+			fail("Source smaller than the dataset accepted.");
+		} catch (final IllegalArgumentException e) {}
+		try {
+			N5Utils.saveMaskedBlocks(img, n5, sparseDataset, ArrayImgs.bits(3, 4, 3), exec);
+			fail("Block mask smaller than the block grid accepted.");
+		} catch (final IllegalArgumentException e) {}
+		try {
+			N5Utils.saveBlocks(Views.interval(img, new long[]{0, 0, 0}, new long[]{10, 20, 32}), n5, sparseDataset, Arrays.asList(new long[]{0, 0, 0}), exec);
+			fail("Source smaller than the dataset accepted.");
+		} catch (final IllegalArgumentException e) {}
+
+		N5Utils.saveMaskedBlocks(img, n5, sparseDataset, blockMask, exec);
+		exec.shutdown();
+
+		final RandomAccessibleInterval<UnsignedShortType> loaded = N5Utils.open(n5, sparseDataset);
+		final Cursor<BitType> c = blockMask.localizingCursor();
+		final long[] gridPosition = new long[3];
+		while (c.hasNext()) {
+			c.fwd();
+			c.localize(gridPosition);
+			if (c.get().get()) {
+				/* masked blocks contain the source */
+				final Interval interval = N5Utils.blockInterval(grid, gridPosition);
+				for (final Pair<UnsignedShortType, UnsignedShortType> pair : Views.flatIterable(Views.interval(Views.pair(img, loaded), interval)))
+					Assert.assertEquals(pair.getA().get(), pair.getB().get());
+			} else {
+				/* all other blocks are untouched */
+				Assert.assertArrayEquals(
+						before[(int)IntervalIndexer.positionToIndex(gridPosition, gridDimensions)],
+						(short[])n5.readBlock(sparseDataset, attributes, gridPosition).getData());
+			}
+		}
+
+		n5.remove(sparseDataset);
+	}
+
+	@Test
+	public void testSavePartitions() throws IOException, InterruptedException, ExecutionException {
+
+		final String partitionedDataset = "/test/group/partitioned-dataset";
+		final int numPartitions = 5;
+		final ArrayImg<UnsignedShortType, ?> img = ArrayImgs.unsignedShorts(data, dimensions);
+		n5.remove(partitionedDataset);
+
+		/* every block belongs to exactly one partition */
+		final Set<List<Long>> covered = new HashSet<>();
+		for (int k = 0; k < numPartitions; ++k)
+			for (final long[] gridPosition : N5Utils.gridPositionsPartition(dimensions, blockSize, k, numPartitions))
+				Assert.assertTrue(covered.add(Arrays.asList(gridPosition[0], gridPosition[1], gridPosition[2])));
+		Assert.assertEquals(3 * 4 * 4, covered.size());
+
+		final ExecutorService exec = Executors.newFixedThreadPool(4);
+		for (int k = 0; k < numPartitions; ++k)
+			N5Utils.savePartition(img, n5, partitionedDataset, blockSize, new RawCompression(), k, numPartitions, exec);
+		exec.shutdown();
+		N5Utils.createDataset(img, n5, partitionedDataset, blockSize, new RawCompression());
+
+		final RandomAccessibleInterval<UnsignedShortType> loaded = N5Utils.open(n5, partitionedDataset);
+		for (final Pair<UnsignedShortType, UnsignedShortType> pair : Views.flatIterable(Views.interval(Views.pair(img, loaded), img)))
+			Assert.assertEquals(pair.getA().get(), pair.getB().get());
+
+		n5.remove(partitionedDataset);
+	}
+
 	private short[] fillData(final int[] size) {
 
 		return Arrays.copyOf(excessData, Arrays.stream(size).reduce(1, (a, b) -> a * b));